@@ -0,0 +1,11 @@
+-- big_table: 长查询测试表（在Writer/Primary上执行）
+-- 大量数据请使用生成器：java -jar druid-long-query-1.0.0-jar-with-dependencies.jar generate
+--   GEN_ROWS=50000000 GEN_THREADS=16 GEN_PAYLOAD_BYTES=200
+-- 生成器在表不存在时按 GEN_PAYLOAD_BYTES 建表；若先执行本脚本，GEN_PAYLOAD_BYTES 不能超过 255
+CREATE TABLE IF NOT EXISTS big_table (
+    id BIGINT PRIMARY KEY,
+    name VARCHAR(64),
+    amount DECIMAL(12,2),
+    created_time TIMESTAMP,
+    payload VARCHAR(255)
+);
@@ -0,0 +1,19 @@
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * 虚拟线程工厂（仅 -Pjava21 构建包含），由 LoadEngine.workerThreads 按 LOAD_THREADS=virtual 反射加载
+ * 主代码仍以Java 8为目标，不直接引用Java 21 API
+ */
+public class VirtualThreadFactory implements ThreadFactory {
+
+    private final ThreadFactory delegate;
+
+    public VirtualThreadFactory(String prefix) {
+        this.delegate = Thread.ofVirtual().name(prefix + "-", 1).factory();
+    }
+
+    @Override
+    public Thread newThread(Runnable r) {
+        return delegate.newThread(r);
+    }
+}
@@ -0,0 +1,125 @@
+package bench;
+
+import com.alibaba.druid.pool.DruidDataSource;
+import com.alibaba.druid.pool.DruidPooledConnection;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Druid连接池借还开销基准测试（H2内存库）
+ * 连接池参数与 DruidLongQueryExample.initDataSource 保持一致，只改变被测的几个开关，
+ * 用于量化 testOnBorrow / keepAlive / maxActive / stat filter 对每次借还的成本
+ *
+ * 运行示例：
+ *   java -cp target/druid-long-query-1.0.0-jar-with-dependencies.jar org.openjdk.jmh.Main PoolBorrowBenchmark -t 32 -p maxActive=20
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(16)
+public class PoolBorrowBenchmark {
+
+    @Param({"true", "false"})
+    public boolean testOnBorrow;
+
+    @Param({"true", "false"})
+    public boolean keepAlive;
+
+    @Param({"8", "20", "64"})
+    public int maxActive;
+
+    @Param({"stat", "none"})
+    public String filters;
+
+    private DruidDataSource dataSource;
+
+    @Setup(Level.Trial)
+    public void setUp() throws SQLException {
+        dataSource = new DruidDataSource();
+        dataSource.setUrl("jdbc:h2:mem:borrow_bench;MODE=MySQL;DB_CLOSE_DELAY=-1");
+        dataSource.setDriverClassName("org.h2.Driver");
+        dataSource.setInitialSize(Math.min(5, maxActive));
+        dataSource.setMinIdle(Math.min(5, maxActive));
+        dataSource.setMaxActive(maxActive);
+        dataSource.setMaxWait(30000);
+
+        dataSource.setKeepAlive(keepAlive);
+        dataSource.setKeepAliveBetweenTimeMillis(35000);
+        dataSource.setTestWhileIdle(true);
+        dataSource.setTestOnBorrow(testOnBorrow);
+        dataSource.setTestOnReturn(false);
+        dataSource.setValidationQuery("SELECT 1");
+        dataSource.setValidationQueryTimeout(5);
+
+        dataSource.setTimeBetweenEvictionRunsMillis(5000);
+        dataSource.setMinEvictableIdleTimeMillis(60000);
+        dataSource.setMaxEvictableIdleTimeMillis(80000);
+
+        if ("stat".equals(filters)) {
+            dataSource.setConnectionProperties("druid.stat.mergeSql=true;druid.stat.slowSqlMillis=5000");
+            dataSource.setFilters("stat");
+        }
+        dataSource.init();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        dataSource.close();
+    }
+
+    /**
+     * 只借出并归还连接
+     */
+    @Benchmark
+    public boolean borrowReturn() throws SQLException {
+        DruidPooledConnection conn = dataSource.getConnection();
+        try {
+            return conn.isClosed();
+        } finally {
+            conn.close();
+        }
+    }
+
+    /**
+     * 借出连接执行一条最简单的查询再归还，包含stat filter对Statement/ResultSet的包装开销
+     */
+    @Benchmark
+    public int borrowQueryReturn() throws SQLException {
+        DruidPooledConnection conn = dataSource.getConnection();
+        try {
+            Statement stmt = conn.createStatement();
+            try {
+                ResultSet rs = stmt.executeQuery("SELECT 1");
+                try {
+                    return rs.next() ? rs.getInt(1) : 0;
+                } finally {
+                    rs.close();
+                }
+            } finally {
+                stmt.close();
+            }
+        } finally {
+            conn.close();
+        }
+    }
+}
@@ -0,0 +1,317 @@
+import java.io.BufferedWriter;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 异步日志输出
+ * 调用线程只把 (时间戳, 消息) 写入预分配的环形缓冲区，由后台线程格式化并批量写出。
+ * 时间前缀按秒缓存，同一秒内的日志不再重复格式化日期；缓冲区满时调用线程阻塞，不丢日志。
+ */
+public final class AsyncLog {
+
+    static final DateTimeFormatter TIME_FORMAT =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss").withZone(ZoneId.systemDefault());
+
+    private static final int DEFAULT_CAPACITY = 1 << 14;
+
+    private final int mask;
+    private final long[] timestamps;
+    private final String[] messages;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private final Condition drained = lock.newCondition();
+    private long head;      // 下一个待写出的序号
+    private long tail;      // 下一个可写入的序号
+    private long written;   // 已写出到底层输出的序号
+
+    private final Writer out;
+    private final Thread writerThread;
+    private boolean closed;  // 受 lock 保护
+
+    // 以下字段只由后台线程访问
+    private long cachedSecond = Long.MIN_VALUE;
+    private String cachedPrefix = "";
+    private final StringBuilder line = new StringBuilder(256);
+    private char[] chars = new char[256];
+    private long[] batchTimestamps;
+    private String[] batchMessages;
+
+    private long linesWritten;
+    private long producerWaits;
+
+    private static final AsyncLog DEFAULT = new AsyncLog(new FileOutputStream(FileDescriptor.out), DEFAULT_CAPACITY);
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                DEFAULT.close();
+            }
+        }, "async-log-shutdown"));
+    }
+
+    /**
+     * 全局日志实例（stdout）
+     */
+    public static AsyncLog get() {
+        return DEFAULT;
+    }
+
+    public AsyncLog(OutputStream stream, int capacity) {
+        int cap = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.mask = cap - 1;
+        this.timestamps = new long[cap];
+        this.messages = new String[cap];
+        this.batchTimestamps = new long[cap];
+        this.batchMessages = new String[cap];
+        this.out = new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8), 1 << 16);
+        this.writerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                drainLoop();
+            }
+        }, "async-log-writer");
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+    }
+
+    /**
+     * 写入一行日志，线程安全
+     */
+    public void log(String message) {
+        long now = System.currentTimeMillis();
+        lock.lock();
+        try {
+            // closed 与 close() 在同一把锁下读写：未关闭时入队的日志一定会被后台线程写出
+            if (!closed) {
+                while (tail - head == timestamps.length) {
+                    producerWaits++;
+                    notFull.awaitUninterruptibly();
+                }
+                int slot = (int) (tail & mask);
+                timestamps[slot] = now;
+                messages[slot] = message;
+                tail++;
+                notEmpty.signal();
+                return;
+            }
+        } finally {
+            lock.unlock();
+        }
+        // 关闭后的日志等后台线程写完剩余内容再同步写出，避免丢失或乱序
+        awaitWriter();
+        System.out.println("[" + TIME_FORMAT.format(Instant.ofEpochMilli(now)) + "] " + message);
+    }
+
+    /**
+     * 写入一行日志并附带异常堆栈，与普通日志保持顺序（不直接写 stderr）
+     */
+    public void log(String message, Throwable t) {
+        StringWriter trace = new StringWriter();
+        t.printStackTrace(new PrintWriter(trace));
+        int end = trace.getBuffer().length();
+        while (end > 0 && Character.isWhitespace(trace.getBuffer().charAt(end - 1))) {
+            end--;
+        }
+        log(message + System.lineSeparator() + trace.getBuffer().substring(0, end));
+    }
+
+    /**
+     * 等待当前已提交的日志全部写出
+     */
+    public void flush() {
+        lock.lock();
+        try {
+            long target = tail;
+            while (written < target && writerThread.isAlive()) {
+                notEmpty.signal();
+                drained.await(100, TimeUnit.MILLISECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 写出剩余日志并停止后台线程
+     */
+    public void close() {
+        flush();
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        awaitWriter();
+        try {
+            out.flush();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void awaitWriter() {
+        if (Thread.currentThread() == writerThread) {
+            return;
+        }
+        try {
+            writerThread.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public long getLinesWritten() {
+        return linesWritten;
+    }
+
+    public long getProducerWaits() {
+        return producerWaits;
+    }
+
+    /**
+     * 对比旧日志路径（SimpleDateFormat + new Date() + 字符串拼接 + 同步PrintStream）
+     * 与异步路径在调用线程上的每行分配字节数，两者都写入丢弃输出
+     */
+    public static void measureAllocation(int lines) {
+        java.lang.management.ThreadMXBean mx = java.lang.management.ManagementFactory.getThreadMXBean();
+        if (!(mx instanceof com.sun.management.ThreadMXBean)) {
+            get().log("Thread allocation counters not available on this JVM");
+            return;
+        }
+        com.sun.management.ThreadMXBean tmx = (com.sun.management.ThreadMXBean) mx;
+        long tid = Thread.currentThread().getId();
+        OutputStream discard = new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        };
+
+        java.text.SimpleDateFormat legacyFormat = new java.text.SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+        java.io.PrintStream legacyOut = new java.io.PrintStream(discard, false);
+        String message = "Active connections: ";
+        // 预热，避免把类加载和JIT算进去
+        for (int i = 0; i < lines; i++) {
+            legacyOut.println("[" + legacyFormat.format(new java.util.Date()) + "] " + message);
+        }
+        long before = tmx.getThreadAllocatedBytes(tid);
+        long t0 = System.nanoTime();
+        for (int i = 0; i < lines; i++) {
+            legacyOut.println("[" + legacyFormat.format(new java.util.Date()) + "] " + message);
+        }
+        long legacyNanos = System.nanoTime() - t0;
+        long legacyBytes = tmx.getThreadAllocatedBytes(tid) - before;
+
+        AsyncLog async = new AsyncLog(discard, DEFAULT_CAPACITY);
+        for (int i = 0; i < lines; i++) {
+            async.log(message);
+        }
+        async.flush();
+        before = tmx.getThreadAllocatedBytes(tid);
+        t0 = System.nanoTime();
+        for (int i = 0; i < lines; i++) {
+            async.log(message);
+        }
+        long asyncNanos = System.nanoTime() - t0;
+        long asyncBytes = tmx.getThreadAllocatedBytes(tid) - before;
+        async.close();
+
+        get().log("========== Log Path Allocation (" + lines + " lines) ==========");
+        get().log(String.format("Legacy (SimpleDateFormat + System.out): %.1f bytes/line, %.0f ns/line",
+                legacyBytes / (double) lines, legacyNanos / (double) lines));
+        get().log(String.format("AsyncLog (caller thread):              %.1f bytes/line, %.0f ns/line",
+                asyncBytes / (double) lines, asyncNanos / (double) lines));
+        get().log("Producer waits on full buffer: " + async.getProducerWaits());
+        get().log("Note: caller-thread cost of one constant message only; formatting and I/O happen on the"
+                + " writer thread, and real call sites also pay for building their message strings");
+    }
+
+    private void drainLoop() {
+        while (true) {
+            int n;
+            long batchEnd;
+            lock.lock();
+            try {
+                while (head == tail) {
+                    if (closed) {
+                        return;
+                    }
+                    notEmpty.awaitUninterruptibly();
+                }
+                n = (int) (tail - head);
+                for (int i = 0; i < n; i++) {
+                    int slot = (int) ((head + i) & mask);
+                    batchTimestamps[i] = timestamps[slot];
+                    batchMessages[i] = messages[slot];
+                    messages[slot] = null;
+                }
+                head += n;
+                batchEnd = head;
+                notFull.signalAll();
+            } finally {
+                lock.unlock();
+            }
+
+            try {
+                for (int i = 0; i < n; i++) {
+                    writeLine(batchTimestamps[i], batchMessages[i]);
+                    batchMessages[i] = null;
+                }
+                out.flush();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            linesWritten += n;
+
+            lock.lock();
+            try {
+                written = batchEnd;
+                drained.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private void writeLine(long timestamp, String message) throws IOException {
+        long second = timestamp / 1000;
+        if (second != cachedSecond) {
+            cachedSecond = second;
+            cachedPrefix = "[" + TIME_FORMAT.format(Instant.ofEpochSecond(second)) + "] ";
+        }
+        line.setLength(0);
+        line.append(cachedPrefix).append(message).append(System.lineSeparator());
+        int len = line.length();
+        if (chars.length < len) {
+            chars = new char[Math.max(len, chars.length * 2)];
+        }
+        line.getChars(0, len, chars, 0);
+        out.write(chars, 0, len);
+    }
+}
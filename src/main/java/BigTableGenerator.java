@@ -0,0 +1,209 @@
+import com.alibaba.druid.pool.DruidDataSource;
+import com.alibaba.druid.pool.DruidPooledConnection;
+
+import java.math.BigDecimal;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * big_table 批量数据生成器
+ * 多个加载线程各自从Druid连接池借连接，按id区间领取任务，
+ * 用PreparedStatement批量插入（MySQL下配合rewriteBatchedStatements改写为多行INSERT），
+ * 每个批次单独提交，并定期输出 rows/s
+ */
+public class BigTableGenerator {
+
+    static final String CREATE_TABLE_SQL = "CREATE TABLE IF NOT EXISTS big_table (" +
+            "id BIGINT PRIMARY KEY, " +
+            "name VARCHAR(64), " +
+            "amount DECIMAL(12,2), " +
+            "created_time TIMESTAMP, " +
+            "payload VARCHAR(%d))";
+
+    private static final String INSERT_SQL =
+            "INSERT INTO big_table (id, name, amount, created_time, payload) VALUES (?, ?, ?, ?, ?)";
+
+    private final DruidDataSource dataSource;
+    private final int threads;
+    private final int batchSize;
+    private final int payloadBytes;
+
+    private final AtomicLong nextId = new AtomicLong();
+    private final AtomicLong inserted = new AtomicLong();
+    private final AtomicReference<SQLException> failure = new AtomicReference<SQLException>();
+    private long endId;
+
+    public BigTableGenerator(DruidDataSource dataSource, int threads, int batchSize, int payloadBytes) {
+        this.dataSource = dataSource;
+        this.threads = Math.max(1, threads);
+        this.batchSize = Math.max(1, batchSize);
+        this.payloadBytes = Math.max(1, payloadBytes);
+    }
+
+    /**
+     * 建表（如不存在）
+     */
+    public void createTable() throws SQLException {
+        DruidPooledConnection conn = dataSource.getConnection();
+        try {
+            Statement stmt = conn.createStatement();
+            try {
+                stmt.execute(String.format(CREATE_TABLE_SQL, payloadBytes));
+            } finally {
+                stmt.close();
+            }
+        } finally {
+            conn.close();
+        }
+    }
+
+    /**
+     * 当前最大id，用于在已有数据后追加
+     */
+    public long maxId() throws SQLException {
+        DruidPooledConnection conn = dataSource.getConnection();
+        try {
+            Statement stmt = conn.createStatement();
+            try {
+                ResultSet rs = stmt.executeQuery("SELECT COALESCE(MAX(id), 0) FROM big_table");
+                try {
+                    return rs.next() ? rs.getLong(1) : 0;
+                } finally {
+                    rs.close();
+                }
+            } finally {
+                stmt.close();
+            }
+        } finally {
+            conn.close();
+        }
+    }
+
+    /**
+     * 生成 [startId, startId + rows) 区间的数据
+     * @return 实际插入的行数
+     */
+    public long generate(long startId, long rows) throws SQLException, InterruptedException {
+        nextId.set(startId);
+        endId = startId + rows;
+        inserted.set(0);
+
+        DruidLongQueryExample.log("========== Generating big_table ==========");
+        DruidLongQueryExample.log("Rows: " + rows + " (id " + startId + " ~ " + (endId - 1) + "), threads: " + threads
+                + ", batch: " + batchSize + ", payload: " + payloadBytes + " bytes");
+
+        final long startNanos = System.nanoTime();
+        final long total = rows;
+        ScheduledExecutorService progress = Executors.newSingleThreadScheduledExecutor(LoadEngine.namedThreads("generator-progress"));
+        progress.scheduleAtFixedRate(new Runnable() {
+            private long lastRows;
+            private long lastNanos = startNanos;
+
+            @Override
+            public void run() {
+                long now = System.nanoTime();
+                long n = inserted.get();
+                DruidLongQueryExample.log(String.format("Generated %d rows (%.1f%%), %.0f rows/s current, %.0f rows/s average",
+                        n, total > 0 ? n * 100.0 / total : 100.0,
+                        (n - lastRows) / ((now - lastNanos) / 1e9), n / ((now - startNanos) / 1e9)));
+                lastRows = n;
+                lastNanos = now;
+            }
+        }, 5, 5, TimeUnit.SECONDS);
+
+        ExecutorService loaders = Executors.newFixedThreadPool(threads, LoadEngine.namedThreads("generator"));
+        for (int i = 0; i < threads; i++) {
+            loaders.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        loadChunks();
+                    } catch (SQLException e) {
+                        failure.compareAndSet(null, e);
+                        DruidLongQueryExample.log("Loader " + Thread.currentThread().getName() + " failed: " + e.getMessage());
+                    }
+                }
+            });
+        }
+        loaders.shutdown();
+        loaders.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+        progress.shutdownNow();
+
+        double elapsedSec = (System.nanoTime() - startNanos) / 1e9;
+        long n = inserted.get();
+        DruidLongQueryExample.log(String.format("Generation finished: %d rows in %.1f s, %.0f rows/s", n, elapsedSec, n / elapsedSec));
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+        return n;
+    }
+
+    /**
+     * 每次领取 batchSize 行，一个批次一个事务
+     */
+    private void loadChunks() throws SQLException {
+        DruidPooledConnection conn = dataSource.getConnection();
+        PreparedStatement ps = null;
+        try {
+            conn.setAutoCommit(false);
+            ps = conn.prepareStatement(INSERT_SQL);
+            char[] payload = new char[payloadBytes];
+            Arrays.fill(payload, 'x');
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            long now = System.currentTimeMillis();
+
+            while (failure.get() == null) {
+                long from = nextId.getAndAdd(batchSize);
+                if (from >= endId) {
+                    break;
+                }
+                long to = Math.min(from + batchSize, endId);
+                for (long id = from; id < to; id++) {
+                    // payload头部写入id，避免整列完全相同被存储引擎过度压缩
+                    String idText = Long.toString(id);
+                    int len = Math.min(idText.length(), payload.length);
+                    idText.getChars(0, len, payload, 0);
+
+                    ps.setLong(1, id);
+                    ps.setString(2, "name-" + id);
+                    ps.setBigDecimal(3, BigDecimal.valueOf(random.nextLong(10000000), 2));
+                    ps.setTimestamp(4, new Timestamp(now - random.nextLong(365L * 24 * 3600 * 1000)));
+                    ps.setString(5, new String(payload));
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+                conn.commit();
+                inserted.addAndGet(to - from);
+            }
+        } catch (SQLException e) {
+            try {
+                conn.rollback();
+            } catch (SQLException ignored) {
+            }
+            throw e;
+        } finally {
+            if (ps != null) {
+                try {
+                    ps.close();
+                } catch (SQLException ignored) {
+                }
+            }
+            try {
+                conn.setAutoCommit(true);
+            } catch (SQLException ignored) {
+            }
+            conn.close();
+        }
+    }
+}
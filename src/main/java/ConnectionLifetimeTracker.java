@@ -0,0 +1,430 @@
+import com.alibaba.druid.filter.FilterChain;
+import com.alibaba.druid.filter.FilterEventAdapter;
+import com.alibaba.druid.pool.DruidDataSource;
+import com.alibaba.druid.pool.DruidPooledConnection;
+import com.alibaba.druid.pool.ValidConnectionChecker;
+import com.alibaba.druid.pool.ValidConnectionCheckerAdapter;
+import com.alibaba.druid.pool.vendor.MySqlValidConnectionChecker;
+import com.alibaba.druid.proxy.jdbc.ConnectionProxy;
+import com.alibaba.druid.proxy.jdbc.DataSourceProxy;
+import com.alibaba.druid.proxy.jdbc.ResultSetProxy;
+import com.alibaba.druid.proxy.jdbc.StatementProxy;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+/**
+ * 物理连接生命周期跟踪（CONN_TRACK=true）
+ * 作为Druid Filter挂在每个Reader连接池上，为每个物理连接记录：
+ *   创建时间、借出次数、累计借出时长、校验次数（testOnBorrow / testWhileIdle / keepAlive）、
+ *   执行的查询数和失败数、关闭时间和关闭原因
+ * Druid校验时绕过Filter直接使用底层连接，校验次数由包装后的 ValidConnectionChecker 统计。
+ * 断连错误和校验失败时记录即视为关闭（底层连接已关闭时Druid不会再调用close），
+ * 其余关闭原因按关闭时的状态推断：连接池关闭、借出中被关闭、超过 phyTimeoutMillis / phyMaxUseCount、
+ * 空闲超过 maxEvictableIdleTimeMillis / minEvictableIdleTimeMillis。
+ * 每次查询按执行时连接的年龄分桶计数，运行结束时输出各年龄段的失败率，
+ * 用于判断失败是否集中在刚建立或存活很久的连接上
+ *
+ * 环境变量：
+ *   CONN_TRACK             是否启用（默认false）
+ *   CONN_TRACK_MAX_CLOSED  内存中保留的已关闭连接记录数（默认10000，超过后丢弃最早的）
+ *   CONN_TRACK_LOG_ROWS    结束时日志输出的连接记录数（默认20）
+ *   CONN_TRACK_CSV         结束时导出全部连接记录的CSV路径（可选）
+ */
+public class ConnectionLifetimeTracker extends FilterEventAdapter {
+
+    // 连接年龄分桶上界（毫秒），最后一个桶无上界
+    static final long[] AGE_BOUNDS = {10000, 60000, 300000, 1800000, 3600000};
+    static final String[] AGE_LABELS = {"<10s", "10s-1m", "1m-5m", "5m-30m", "30m-1h", ">=1h"};
+
+    /**
+     * 一个物理连接的记录，字段在 LOCK 内读写
+     */
+    static class Record {
+        final long seq;
+        final DruidDataSource pool;
+        final long createdMillis;
+        long borrows;
+        long busyNanos;
+        long borrowStartNanos;
+        long lastReturnMillis;
+        long validations;
+        long queries;
+        long failures;
+        boolean queryFailed;
+        long queryAgeMillis;
+        long closedMillis;
+        String closeReason;
+
+        Record(long seq, DruidDataSource pool, long createdMillis) {
+            this.seq = seq;
+            this.pool = pool;
+            this.createdMillis = createdMillis;
+            this.lastReturnMillis = createdMillis;
+        }
+
+        long lifetimeMillis() {
+            return (closedMillis > 0 ? closedMillis : System.currentTimeMillis()) - createdMillis;
+        }
+    }
+
+    private static final Object LOCK = new Object();
+    private static final Map<ConnectionProxy, Record> OPEN = new IdentityHashMap<ConnectionProxy, Record>();
+    private static final ArrayDeque<Record> CLOSED = new ArrayDeque<Record>();
+    private static final long[] AGE_QUERIES = new long[AGE_LABELS.length];
+    private static final long[] AGE_FAILURES = new long[AGE_LABELS.length];
+    private static final int MAX_CLOSED = DruidLongQueryExample.envInt("CONN_TRACK_MAX_CLOSED", 10000);
+    private static long sequence;
+    private static long droppedClosed;
+    private static volatile boolean poolClosing;
+
+    private DruidDataSource pool;
+
+    public static boolean isEnabled() {
+        return "true".equalsIgnoreCase(System.getenv("CONN_TRACK"));
+    }
+
+    /**
+     * init前调用，把跟踪器加入连接池的Filter链并包装校验器
+     * （之后设置的校验器会替换包装，如 LightweightValidation，其 isValid 经过Filter链仍会被统计）
+     */
+    static void apply(DruidDataSource ds) {
+        ds.getProxyFilters().add(new ConnectionLifetimeTracker());
+        if (ds.getValidConnectionChecker() == null) {
+            // 与Druid按驱动自动选择的一致：MySQL用自带校验器，其余执行validationQuery
+            String driver = ds.getDriverClassName();
+            ds.setValidConnectionChecker(new CountingChecker(driver != null && driver.contains("mysql")
+                    ? new MySqlValidConnectionChecker() : new ValidConnectionCheckerAdapter()));
+        }
+    }
+
+    /**
+     * 统计校验次数的校验器，conn 为Filter包装的物理连接
+     */
+    static class CountingChecker implements ValidConnectionChecker {
+        private final ValidConnectionChecker delegate;
+
+        CountingChecker(ValidConnectionChecker delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public boolean isValidConnection(Connection conn, String validationQuery, int timeoutSeconds) throws Exception {
+            boolean ok = false;
+            try {
+                ok = delegate.isValidConnection(conn, validationQuery, timeoutSeconds);
+                return ok;
+            } finally {
+                validated(conn, ok);
+            }
+        }
+
+        @Override
+        public void configFromProperties(Properties properties) {
+            delegate.configFromProperties(properties);
+        }
+    }
+
+    @Override
+    public void init(DataSourceProxy dataSource) {
+        if (dataSource instanceof DruidDataSource) {
+            pool = (DruidDataSource) dataSource;
+        }
+    }
+
+    // ===== 物理连接创建 / 关闭 =====
+
+    @Override
+    public void connection_connectAfter(ConnectionProxy connection) {
+        synchronized (LOCK) {
+            OPEN.put(connection, new Record(++sequence, pool, System.currentTimeMillis()));
+        }
+    }
+
+    @Override
+    public void connection_close(FilterChain chain, ConnectionProxy connection) throws SQLException {
+        synchronized (LOCK) {
+            Record r = OPEN.get(connection);
+            if (r != null) {
+                // 先定下关闭时刻再推断原因，否则空闲时长按未赋值的closedMillis算出来是负数
+                r.closedMillis = System.currentTimeMillis();
+                closed(connection, r, closeReason(r));
+            }
+        }
+        super.connection_close(chain, connection);
+    }
+
+    /**
+     * 把记录移到已关闭列表，调用方持有 LOCK
+     */
+    private static void closed(Connection connection, Record r, String reason) {
+        OPEN.remove(connection);
+        if (r.borrowStartNanos != 0) {
+            r.busyNanos += System.nanoTime() - r.borrowStartNanos;
+        }
+        if (r.closedMillis == 0) {
+            r.closedMillis = System.currentTimeMillis();
+        }
+        r.closeReason = reason;
+        CLOSED.addLast(r);
+        if (CLOSED.size() > MAX_CLOSED) {
+            CLOSED.removeFirst();
+            droppedClosed++;
+        }
+    }
+
+    /**
+     * 按关闭时的状态推断关闭原因
+     */
+    private static String closeReason(Record r) {
+        if (poolClosing) {
+            return "pool closed";
+        }
+        if (r.borrowStartNanos != 0) {
+            return "closed while borrowed";
+        }
+        DruidDataSource ds = r.pool;
+        if (ds != null) {
+            if (ds.getPhyTimeoutMillis() > 0 && r.lifetimeMillis() >= ds.getPhyTimeoutMillis()) {
+                return "phyTimeout";
+            }
+            if (ds.getPhyMaxUseCount() > 0 && r.borrows >= ds.getPhyMaxUseCount()) {
+                return "phyMaxUseCount";
+            }
+            long idle = r.closedMillis - r.lastReturnMillis;
+            if (idle >= ds.getMaxEvictableIdleTimeMillis()) {
+                return "evicted (maxEvictableIdle)";
+            }
+            if (idle >= ds.getMinEvictableIdleTimeMillis()) {
+                return "evicted (minEvictableIdle)";
+            }
+        }
+        return "other";
+    }
+
+    // ===== 借出 / 归还 =====
+
+    @Override
+    public DruidPooledConnection dataSource_getConnection(FilterChain chain, DruidDataSource dataSource, long maxWaitMillis)
+            throws SQLException {
+        DruidPooledConnection conn = super.dataSource_getConnection(chain, dataSource, maxWaitMillis);
+        if (conn != null && conn.getConnectionHolder() != null && conn.getConnectionHolder().getConnection() instanceof ConnectionProxy) {
+            synchronized (LOCK) {
+                Record r = OPEN.get(conn.getConnectionHolder().getConnection());
+                if (r != null) {
+                    r.borrows++;
+                    r.borrowStartNanos = System.nanoTime();
+                }
+            }
+        }
+        return conn;
+    }
+
+    @Override
+    public void dataSource_releaseConnection(FilterChain chain, DruidPooledConnection conn) throws SQLException {
+        if (conn.getConnectionHolder() != null && conn.getConnectionHolder().getConnection() instanceof ConnectionProxy) {
+            synchronized (LOCK) {
+                Record r = OPEN.get(conn.getConnectionHolder().getConnection());
+                if (r != null && r.borrowStartNanos != 0) {
+                    r.busyNanos += System.nanoTime() - r.borrowStartNanos;
+                    r.borrowStartNanos = 0;
+                    r.lastReturnMillis = System.currentTimeMillis();
+                }
+            }
+        }
+        super.dataSource_releaseConnection(chain, conn);
+    }
+
+    // ===== 校验 =====
+
+    @Override
+    public boolean connection_isValid(FilterChain chain, ConnectionProxy connection, int timeout) throws SQLException {
+        boolean ok = false;
+        try {
+            ok = super.connection_isValid(chain, connection, timeout);
+            return ok;
+        } finally {
+            validated(connection, ok);
+        }
+    }
+
+    /**
+     * 记录一次校验，失败的连接随后会被Druid丢弃
+     */
+    private static void validated(Connection connection, boolean ok) {
+        synchronized (LOCK) {
+            Record r = OPEN.get(connection);
+            if (r != null) {
+                r.validations++;
+                if (!ok) {
+                    closed(connection, r, "validation failed");
+                }
+            }
+        }
+    }
+
+    // ===== 查询 =====
+
+    @Override
+    protected void statementExecuteQueryBefore(StatementProxy statement, String sql) {
+        executing(statement, sql);
+    }
+
+    @Override
+    protected void statementExecuteBefore(StatementProxy statement, String sql) {
+        executing(statement, sql);
+    }
+
+    @Override
+    protected void statement_executeErrorAfter(StatementProxy statement, String sql, Throwable error) {
+        failed(statement.getConnectionProxy(), error);
+    }
+
+    @Override
+    public boolean resultSet_next(FilterChain chain, ResultSetProxy resultSet) throws SQLException {
+        try {
+            return super.resultSet_next(chain, resultSet);
+        } catch (SQLException e) {
+            // 读取结果集过程中断连
+            failed(resultSet.getStatementProxy().getConnectionProxy(), e);
+            throw e;
+        }
+    }
+
+    private static void executing(StatementProxy statement, String sql) {
+        synchronized (LOCK) {
+            Record r = OPEN.get(statement.getConnectionProxy());
+            if (r == null) {
+                return;
+            }
+            r.queries++;
+            r.queryFailed = false;
+            r.queryAgeMillis = System.currentTimeMillis() - r.createdMillis;
+            AGE_QUERIES[ageBucket(r.queryAgeMillis)]++;
+        }
+    }
+
+    private static void failed(ConnectionProxy connection, Throwable error) {
+        synchronized (LOCK) {
+            Record r = OPEN.get(connection);
+            if (r == null) {
+                return;
+            }
+            // 同一次查询只计一次失败
+            if (!r.queryFailed && r.queries > 0) {
+                r.queryFailed = true;
+                r.failures++;
+                AGE_FAILURES[ageBucket(r.queryAgeMillis)]++;
+            }
+            if (error instanceof SQLException) {
+                ErrorClassifier.Category category = ErrorClassifier.classify((SQLException) error);
+                if (category.connectionLost) {
+                    // 连接随后由 ExceptionSorter 或 discardBrokenConnection 丢弃
+                    closed(connection, r, "broken (" + category.label + ")");
+                }
+            }
+        }
+    }
+
+    static int ageBucket(long ageMillis) {
+        for (int i = 0; i < AGE_BOUNDS.length; i++) {
+            if (ageMillis < AGE_BOUNDS[i]) return i;
+        }
+        return AGE_BOUNDS.length;
+    }
+
+    /**
+     * 关闭连接池前调用，之后关闭的连接记为 pool closed
+     */
+    static void poolClosing() {
+        poolClosing = true;
+    }
+
+    /**
+     * 输出连接记录、关闭原因统计和按连接年龄的失败率，在连接池关闭后调用
+     */
+    static void report() {
+        if (!isEnabled()) {
+            return;
+        }
+        List<Record> records = new ArrayList<Record>();
+        Map<String, Integer> reasons = new TreeMap<String, Integer>();
+        long[] queries;
+        long[] failures;
+        long dropped;
+        synchronized (LOCK) {
+            records.addAll(CLOSED);
+            records.addAll(OPEN.values());
+            for (Record r : records) {
+                String reason = r.closeReason != null ? r.closeReason : "open";
+                Integer n = reasons.get(reason);
+                reasons.put(reason, n == null ? 1 : n + 1);
+            }
+            queries = AGE_QUERIES.clone();
+            failures = AGE_FAILURES.clone();
+            dropped = droppedClosed;
+        }
+
+        DruidLongQueryExample.log("\n========== Connection Lifetime ==========");
+        int logRows = DruidLongQueryExample.envInt("CONN_TRACK_LOG_ROWS", 20);
+        DruidLongQueryExample.log("  seq | pool      | created             | life s   | borrows | busy s   | valid | queries | failed | close reason");
+        for (int i = Math.max(0, records.size() - logRows); i < records.size(); i++) {
+            DruidLongQueryExample.log(format(records.get(i)));
+        }
+        if (records.size() > logRows) {
+            DruidLongQueryExample.log("  ... " + (records.size() - logRows) + " more (CONN_TRACK_CSV exports all)");
+        }
+        DruidLongQueryExample.log("Connections tracked: " + records.size() + (dropped > 0 ? " (" + dropped + " oldest closed records dropped)" : ""));
+        for (Map.Entry<String, Integer> e : reasons.entrySet()) {
+            DruidLongQueryExample.log(String.format("  %-28s %6d", e.getKey(), e.getValue()));
+        }
+        DruidLongQueryExample.log("Failure rate by connection age at query start:");
+        DruidLongQueryExample.log("  age      | queries  | failed   | rate");
+        for (int i = 0; i < AGE_LABELS.length; i++) {
+            DruidLongQueryExample.log(String.format("  %-8s | %8d | %8d | %s", AGE_LABELS[i], queries[i], failures[i],
+                    queries[i] > 0 ? String.format("%.2f%%", failures[i] * 100.0 / queries[i]) : "-"));
+        }
+        DruidLongQueryExample.log("=========================================");
+
+        String csv = System.getenv("CONN_TRACK_CSV");
+        if (csv != null && !csv.trim().isEmpty()) {
+            writeCsv(csv.trim(), records);
+        }
+    }
+
+    private static String format(Record r) {
+        return String.format("%5d | %-9s | %s | %8.1f | %7d | %8.1f | %5d | %7d | %6d | %s",
+                r.seq, r.pool != null ? r.pool.getName() : "-", DruidLongQueryExample.formatTime(r.createdMillis),
+                r.lifetimeMillis() / 1000.0, r.borrows, r.busyNanos / 1e9, r.validations, r.queries, r.failures,
+                r.closeReason != null ? r.closeReason : "open");
+    }
+
+    private static void writeCsv(String path, List<Record> records) {
+        PrintWriter w = null;
+        try {
+            w = new PrintWriter(new FileWriter(path));
+            w.println("seq,pool,created,createdMillis,closedMillis,lifetimeMillis,borrows,busyMillis,validations,queries,failures,closeReason");
+            for (Record r : records) {
+                w.println(r.seq + "," + (r.pool != null ? r.pool.getName() : "") + "," + DruidLongQueryExample.formatTime(r.createdMillis)
+                        + "," + r.createdMillis + "," + r.closedMillis + "," + r.lifetimeMillis() + "," + r.borrows
+                        + "," + r.busyNanos / 1000000 + "," + r.validations + "," + r.queries + "," + r.failures
+                        + "," + (r.closeReason != null ? r.closeReason : "open"));
+            }
+            DruidLongQueryExample.log("Connection lifetimes written to " + path + " (" + records.size() + " rows)");
+        } catch (IOException e) {
+            DruidLongQueryExample.log("Failed to write connection lifetimes: " + e.getMessage());
+        } finally {
+            if (w != null) w.close();
+        }
+    }
+}
@@ -0,0 +1,316 @@
+import com.alibaba.druid.pool.DruidDataSource;
+import com.alibaba.druid.pool.DruidPooledConnection;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * DDL干扰驱动
+ * 使用独立的Writer连接池，在Reader查询开始后的固定偏移时间执行一组DDL/DML，
+ * 并把Reader查询和DDL语句记录到同一条时间线上，统计与DDL重叠的查询延迟和失败率变化
+ */
+public class DdlInterference {
+
+    static final String DEFAULT_STATEMENTS =
+            "ALTER TABLE big_table ADD COLUMN {col} VARCHAR(500);" +
+            "UPDATE big_table SET {col} = REPEAT('X', 500) WHERE MOD(id, 5) = 0;" +
+            "ALTER TABLE big_table DROP COLUMN {col}";
+
+    /**
+     * 时间线上的一个事件（一次Reader查询或一条DDL语句）
+     */
+    static class Event {
+        final boolean reader;
+        final long id;
+        final String label;
+        final long startMillis;
+        final long startNanos;
+        volatile long endNanos;
+        volatile boolean ok;
+        volatile String error;
+
+        Event(boolean reader, long id, String label) {
+            this.reader = reader;
+            this.id = id;
+            this.label = label;
+            this.startMillis = System.currentTimeMillis();
+            this.startNanos = System.nanoTime();
+        }
+
+        boolean finished() {
+            return endNanos != 0;
+        }
+
+        boolean overlaps(Event other) {
+            long end = finished() ? endNanos : Long.MAX_VALUE;
+            long otherEnd = other.finished() ? other.endNanos : Long.MAX_VALUE;
+            return other.startNanos < end && otherEnd > startNanos;
+        }
+    }
+
+    private final DruidDataSource writer;
+    private final List<String> statements;
+    private final long offsetMillis;
+    private final long statementGapMillis;
+    private final int everyNQueries;
+
+    private final List<Event> events = Collections.synchronizedList(new ArrayList<Event>());
+    private final AtomicLong readerSeq = new AtomicLong();
+    private final AtomicLong ddlCycle = new AtomicLong();
+    private final AtomicBoolean ddlRunning = new AtomicBoolean();
+    private final ScheduledThreadPoolExecutor scheduler;
+    private final long baseNanos = System.nanoTime();
+
+    /**
+     * @param statements     每个周期依次执行的语句，{col} 会被替换为本周期的临时列名
+     * @param offsetMillis   Reader查询开始后多久执行第一条语句
+     * @param statementGapMillis 同一周期内语句之间的间隔
+     * @param everyNQueries  每N个Reader查询触发一次（周期未结束时跳过）
+     */
+    public DdlInterference(DruidDataSource writer, List<String> statements, long offsetMillis,
+                           long statementGapMillis, int everyNQueries) {
+        this.writer = writer;
+        this.statements = statements;
+        this.offsetMillis = offsetMillis;
+        this.statementGapMillis = statementGapMillis;
+        this.everyNQueries = Math.max(1, everyNQueries);
+        this.scheduler = new ScheduledThreadPoolExecutor(1, LoadEngine.namedThreads("ddl-interference"));
+        // stop() 后不再执行已安排但尚未开始的DDL周期
+        this.scheduler.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+    }
+
+    static List<String> parseStatements(String text) {
+        List<String> result = new ArrayList<String>();
+        for (String s : text.split(";")) {
+            if (!s.trim().isEmpty()) result.add(s.trim());
+        }
+        return result;
+    }
+
+    /**
+     * Reader查询开始时调用，必要时安排一次DDL周期
+     */
+    public Event readerStarted(int workerId) {
+        long seq = readerSeq.incrementAndGet();
+        final Event event = new Event(true, seq, "worker-" + workerId);
+        events.add(event);
+        if ((seq - 1) % everyNQueries == 0 && ddlRunning.compareAndSet(false, true)) {
+            scheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        runCycle(event.id);
+                    } finally {
+                        ddlRunning.set(false);
+                    }
+                }
+            }, offsetMillis, TimeUnit.MILLISECONDS);
+        }
+        return event;
+    }
+
+    public void readerFinished(Event event, boolean ok) {
+        event.ok = ok;
+        event.endNanos = System.nanoTime();
+    }
+
+    private void runCycle(long triggerQuery) {
+        long cycle = ddlCycle.incrementAndGet();
+        String column = "temp_col_" + cycle;
+        DruidLongQueryExample.log("[DDL] Cycle #" + cycle + " triggered by reader query #" + triggerQuery
+                + " (+" + offsetMillis + " ms)");
+        for (int i = 0; i < statements.size(); i++) {
+            String sql = statements.get(i).replace("{col}", column);
+            Event event = new Event(false, cycle, sql);
+            events.add(event);
+            DruidPooledConnection conn = null;
+            Statement stmt = null;
+            try {
+                conn = writer.getConnection();
+                stmt = conn.createStatement();
+                stmt.execute(sql);
+                event.ok = true;
+            } catch (SQLException e) {
+                event.error = e.getErrorCode() + " " + e.getMessage();
+                DruidLongQueryExample.log("[DDL] ✗ " + sql + " failed: " + e.getMessage());
+            } finally {
+                event.endNanos = System.nanoTime();
+                try {
+                    if (stmt != null) stmt.close();
+                    if (conn != null) conn.close();
+                } catch (SQLException ignored) {
+                }
+            }
+            DruidLongQueryExample.log("[DDL] " + (event.ok ? "✓ " : "✗ ") + sql + " took "
+                    + (event.endNanos - event.startNanos) / 1000000 + " ms");
+            if (statementGapMillis > 0 && i < statements.size() - 1) {
+                try {
+                    Thread.sleep(statementGapMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * 停止调度：丢弃尚未开始的DDL周期，只等待正在执行的周期结束
+     */
+    public void stop() {
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(10, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 输出合并时间线和重叠/未重叠查询的对比，csvPath非空时写出完整时间线
+     */
+    public void report(String csvPath) {
+        List<Event> all;
+        synchronized (events) {
+            all = new ArrayList<Event>(events);
+        }
+        Collections.sort(all, new Comparator<Event>() {
+            @Override
+            public int compare(Event a, Event b) {
+                return Long.compare(a.startNanos, b.startNanos);
+            }
+        });
+        List<Event> ddls = new ArrayList<Event>();
+        for (Event e : all) {
+            if (!e.reader) ddls.add(e);
+        }
+
+        Group overlapped = new Group();
+        Group clean = new Group();
+        List<String> lines = new ArrayList<String>();
+        for (Event e : all) {
+            if (e.reader) {
+                StringBuilder hits = new StringBuilder();
+                for (Event d : ddls) {
+                    if (e.overlaps(d)) {
+                        if (hits.length() > 0) hits.append(", ");
+                        hits.append("DDL#").append(d.id).append(' ').append(shortSql(d.label));
+                    }
+                }
+                (hits.length() > 0 ? overlapped : clean).add(e);
+                lines.add(String.format("%10s  READER #%-5d %-10s %9s  %-6s %s", offset(e.startNanos), e.id, e.label,
+                        e.finished() ? (e.endNanos - e.startNanos) / 1000000 + "ms" : "running",
+                        e.finished() ? (e.ok ? "OK" : "FAILED") : "-",
+                        hits.length() > 0 ? "overlaps " + hits : ""));
+            } else {
+                lines.add(String.format("%10s  DDL    #%-5d %-10s %9s  %-6s %s", offset(e.startNanos), e.id, "",
+                        e.finished() ? (e.endNanos - e.startNanos) / 1000000 + "ms" : "running",
+                        e.ok ? "OK" : "FAILED", e.label + (e.error != null ? " [" + e.error + "]" : "")));
+            }
+        }
+
+        DruidLongQueryExample.log("\n========== DDL Interference Timeline ==========");
+        if (lines.size() <= 500) {
+            for (String line : lines) DruidLongQueryExample.log(line);
+        } else {
+            DruidLongQueryExample.log(lines.size() + " events, see CSV for the full timeline");
+        }
+        DruidLongQueryExample.log("---------- Reader queries vs DDL ----------");
+        DruidLongQueryExample.log("group        | queries | failed | fail rate | p50 ms | p99 ms | max ms");
+        overlapped.print("overlap DDL");
+        clean.print("no overlap");
+        if (overlapped.count() > 0 && clean.count() > 0 && clean.percentile(50) > 0) {
+            DruidLongQueryExample.log(String.format("Overlap effect: p50 x%.2f, failure rate %+.1f pp",
+                    overlapped.percentile(50) / (double) clean.percentile(50),
+                    (overlapped.failureRate() - clean.failureRate()) * 100));
+        }
+        DruidLongQueryExample.log("===============================================");
+
+        if (csvPath != null && !csvPath.trim().isEmpty()) {
+            writeCsv(csvPath.trim(), all, ddls);
+        }
+    }
+
+    private void writeCsv(String path, List<Event> all, List<Event> ddls) {
+        PrintWriter w = null;
+        try {
+            w = new PrintWriter(new FileWriter(path));
+            w.println("type,id,label,startTime,startOffsetMs,durationMs,ok,overlapsDdl,error");
+            for (Event e : all) {
+                boolean overlap = false;
+                if (e.reader) {
+                    for (Event d : ddls) overlap |= e.overlaps(d);
+                }
+                w.println((e.reader ? "reader" : "ddl") + "," + e.id + ",\"" + e.label.replace("\"", "\"\"") + "\","
+                        + DruidLongQueryExample.formatTime(e.startMillis) + ","
+                        + (e.startNanos - baseNanos) / 1000000 + ","
+                        + (e.finished() ? String.valueOf((e.endNanos - e.startNanos) / 1000000) : "") + ","
+                        + e.ok + "," + overlap + ",\"" + (e.error != null ? e.error.replace("\"", "\"\"") : "") + "\"");
+            }
+            DruidLongQueryExample.log("DDL timeline written to " + path);
+        } catch (IOException e) {
+            DruidLongQueryExample.log("Failed to write DDL timeline: " + e.getMessage());
+        } finally {
+            if (w != null) w.close();
+        }
+    }
+
+    private String offset(long nanos) {
+        return String.format("T+%.3fs", (nanos - baseNanos) / 1e9);
+    }
+
+    private static String shortSql(String sql) {
+        return sql.length() > 40 ? sql.substring(0, 40) + "..." : sql;
+    }
+
+    /**
+     * 一组Reader查询的延迟与失败统计
+     */
+    private static class Group {
+        private final List<Long> latencies = new ArrayList<Long>();
+        private int failed;
+
+        void add(Event e) {
+            if (!e.finished()) return;
+            latencies.add((e.endNanos - e.startNanos) / 1000000);
+            if (!e.ok) failed++;
+        }
+
+        int count() {
+            return latencies.size();
+        }
+
+        double failureRate() {
+            return latencies.isEmpty() ? 0 : failed / (double) latencies.size();
+        }
+
+        long percentile(double p) {
+            if (latencies.isEmpty()) return 0;
+            long[] sorted = new long[latencies.size()];
+            for (int i = 0; i < sorted.length; i++) sorted[i] = latencies.get(i);
+            Arrays.sort(sorted);
+            return LoadEngine.Report.percentile(sorted, p);
+        }
+
+        void print(String name) {
+            if (latencies.isEmpty()) {
+                DruidLongQueryExample.log(String.format("%-12s | 0", name));
+                return;
+            }
+            DruidLongQueryExample.log(String.format("%-12s | %7d | %6d | %8.1f%% | %6d | %6d | %6d", name, count(), failed,
+                    failureRate() * 100, percentile(50), percentile(99), percentile(100)));
+        }
+    }
+}
@@ -4,8 +4,10 @@ import com.alibaba.druid.pool.DruidPooledConnection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * Druid连接池长查询测试脚本
@@ -14,9 +16,12 @@ import java.util.Date;
 public class DruidLongQueryExample {
 
     private static DruidDataSource dataSource;   // Read Replica endpoint for long queries
-    // SimpleDateFormat不是线程安全的，但本程序是单线程运行，可以忽略警告
-    @SuppressWarnings("SimpleDateFormat")
-    private static final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+    private static PoolSampler poolSampler;      // 连接池指标定时采样
+    private static ResilientQuery resilientQuery; // 断连重试（RETRY_MAX > 0 时启用）
+    private static ReaderRouter readerRouter;     // 多Reader路由（配置多个Reader端点时启用）
+    private static MetricsExporter metricsExporter; // JMX / Prometheus指标导出（METRICS_PORT、METRICS_JMX）
+    private static SqlStatReport sqlStatReport;   // StatFilter合并SQL报告（SQL_REPORT_PATH）
+    private static final List<PoolSizeController> poolControllers = new ArrayList<PoolSizeController>();
 
     // ===== 数据库配置 =====
     // Read Replica endpoint for long queries (DDL 在另一个实例手动执行)
@@ -32,6 +37,21 @@ public class DruidLongQueryExample {
         ? System.getenv("DB_PASSWORD") 
         : "your_password_here";  // 修改为您的实际密码
     
+    // Writer (Primary) endpoint，用于生成测试数据等写操作；未设置时由Reader集群地址推导
+    private static final String WRITER_DB_URL = System.getenv("WRITER_DB_URL") != null
+        ? System.getenv("WRITER_DB_URL")
+        : DB_URL.replace(".cluster-ro-", ".cluster-");
+
+    // ===== 结果集读取配置 =====
+    // FETCH_MODE:
+    //   buffered - 默认Statement，Connector/J 在 executeQuery 返回前把整个结果集读入堆内存
+    //   stream   - fetchSize=Integer.MIN_VALUE，逐行从socket读取，内存占用恒定
+    //   cursor   - useCursorFetch=true + FETCH_SIZE，服务端游标按批返回
+    private static final String FETCH_MODE = System.getenv("FETCH_MODE") != null
+        ? System.getenv("FETCH_MODE").trim().toLowerCase()
+        : "buffered";
+    private static final int FETCH_SIZE = envInt("FETCH_SIZE", 1000);
+
     // AWS Aurora MySQL示例（通过环境变量配置）
     // export DB_URL="jdbc:mysql://your-aurora-cluster.cluster-xxxxx.ap-southeast-2.rds.amazonaws.com:3306/database_name?useSSL=false"
     // export DB_USERNAME="admin"
@@ -55,75 +75,258 @@ public class DruidLongQueryExample {
      * 初始化Druid连接池（Read Replica）
      */
     public static void initDataSource() {
-        dataSource = new DruidDataSource();
-        dataSource.setUrl(DB_URL);
-        dataSource.setUsername(DB_USERNAME);
-        dataSource.setPassword(DB_PASSWORD);
-        dataSource.setDriverClassName("com.mysql.cj.jdbc.Driver");
-        dataSource.setInitialSize(5);
-        dataSource.setMinIdle(5);
-        dataSource.setMaxActive(20);
-        dataSource.setMaxWait(30000);
+        initDataSource(null);
+    }
+
+    /**
+     * 初始化Druid连接池，场景文件中的连接池参数覆盖默认值
+     * 配置了多个Reader端点（READER_URLS 或本地模式下 LOCAL_READERS > 1）时，每个端点一个连接池，
+     * 由 ReaderRouter 按 READER_ROUTING 路由，dataSource 指向第一个端点（采样器和状态输出使用）
+     */
+    public static void initDataSource(Scenario scenario) {
+        List<String> urls;
+        try {
+            urls = readerUrls();
+        } catch (SQLException e) {
+            log("ERROR - Failed to start local database: " + e.getMessage(), e);
+            return;
+        }
+        String url = urls.get(0);
+        dataSource = newReaderPool(url, scenario);
+        
+        try {
+            initReaderPool(dataSource);
+            log("Druid connection pool initialized successfully");
+            log("=== DB endpoint: " + url);
+            log("MaxActive: " + dataSource.getMaxActive());
+            log("TestOnBorrow: " + dataSource.isTestOnBorrow());
+            log("TestWhileIdle: " + dataSource.isTestWhileIdle());
+            log("KeepAlive: " + dataSource.isKeepAlive());
+            log("Fetch mode: " + FETCH_MODE + ("cursor".equals(FETCH_MODE) ? ", fetch size: " + FETCH_SIZE : ""));
+            if (!"buffered".equals(FETCH_MODE) && !"stream".equals(FETCH_MODE) && !"cursor".equals(FETCH_MODE)) {
+                // 只在启动时提示一次，createStatement 对未知模式按驱动默认处理
+                log("Unknown FETCH_MODE '" + FETCH_MODE + "', falling back to driver default");
+            }
+            
+        } catch (SQLException e) {
+            log("ERROR - Failed to initialize Druid connection pool: " + e.getMessage(), e);
+        }
+
+        if (dataSource != null) {
+            dataSource.setName("reader-1");
+        }
+        if (urls.size() > 1) {
+            String policy = System.getenv("READER_ROUTING") != null ? System.getenv("READER_ROUTING") : "least-active";
+            readerRouter = new ReaderRouter(ReaderRouter.Policy.parse(policy),
+                    envInt("READER_FAIL_THRESHOLD", 3), envLong("READER_DRAIN_SEC", 30) * 1000,
+                    envLong("READER_MAX_LAG_MS", 1000), envLong("READER_LAG_POLL_MS", 5000));
+            readerRouter.add(url, dataSource);
+            for (int i = 1; i < urls.size(); i++) {
+                DruidDataSource ds = newReaderPool(urls.get(i), scenario);
+                ds.setName("reader-" + (i + 1));
+                try {
+                    initReaderPool(ds);
+                } catch (SQLException e) {
+                    // 暂时不可用的Reader仍加入路由，取连接失败会使其被摘除
+                    log("ERROR - Failed to initialize pool for " + urls.get(i) + ": " + e.getMessage());
+                }
+                readerRouter.add(urls.get(i), ds);
+            }
+            readerRouter.start();
+        }
+    }
+
+    /**
+     * 初始化Reader连接池，WARMUP=true时并行建连并预热每个连接
+     */
+    private static void initReaderPool(DruidDataSource ds) throws SQLException {
+        if (!PoolWarmer.isEnabled()) {
+            ds.init();
+            return;
+        }
+        PoolWarmer.prepare(ds);
+        ds.init();
+        try {
+            PoolWarmer.warm(ds);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Reader端点列表：READER_URLS（逗号分隔的实例端点）或 DB_URL；
+     * 本地模式下为 LOCAL_READERS 个指向同一H2的代理
+     */
+    private static List<String> readerUrls() throws SQLException {
+        List<String> urls = new ArrayList<String>();
+        if (LocalDatabase.isEnabled()) {
+            urls.add(LocalDatabase.start());
+            for (int i = 1; i < envInt("LOCAL_READERS", 1); i++) {
+                urls.add(LocalDatabase.openReaderProxy());
+            }
+            return urls;
+        }
+        String readers = System.getenv("READER_URLS");
+        if (readers != null) {
+            for (String u : readers.split(",")) {
+                if (!u.trim().isEmpty()) urls.add(u.trim());
+            }
+        }
+        if (urls.isEmpty()) {
+            urls.add(DB_URL);
+        }
+        return urls;
+    }
+
+    /**
+     * 按Reader默认配置创建（尚未init的）连接池
+     */
+    private static DruidDataSource newReaderPool(String url, Scenario scenario) {
+        DruidDataSource ds = new DruidDataSource();
+        ds.setUrl(url);
+        if (LocalDatabase.isEnabled()) {
+            ds.setUsername(LocalDatabase.USERNAME);
+            ds.setPassword(LocalDatabase.PASSWORD);
+            ds.setDriverClassName("org.h2.Driver");
+        } else {
+            ds.setUsername(DB_USERNAME);
+            ds.setPassword(DB_PASSWORD);
+            ds.setDriverClassName("com.mysql.cj.jdbc.Driver");
+        }
+        ds.setInitialSize(5);
+        ds.setMinIdle(5);
+        ds.setMaxActive(20);
+        ds.setMaxWait(30000);
         
         // ===== AWS生产环境配置 =====
-        dataSource.setKeepAlive(true);
-        dataSource.setKeepAliveBetweenTimeMillis(35000);
-        dataSource.setTestWhileIdle(true);
-        dataSource.setTestOnBorrow(true);
-        dataSource.setTestOnReturn(false);
-        dataSource.setValidationQuery("SELECT 1");
-        dataSource.setValidationQueryTimeout(5);
+        ds.setKeepAlive(true);
+        ds.setKeepAliveBetweenTimeMillis(35000);
+        ds.setTestWhileIdle(true);
+        ds.setTestOnBorrow(true);
+        ds.setTestOnReturn(false);
+        ds.setValidationQuery("SELECT 1");
+        ds.setValidationQueryTimeout(5);
         
-        dataSource.setTimeBetweenEvictionRunsMillis(5000);
-        dataSource.setMinEvictableIdleTimeMillis(60000);
-        dataSource.setMaxEvictableIdleTimeMillis(80000);
+        ds.setTimeBetweenEvictionRunsMillis(5000);
+        ds.setMinEvictableIdleTimeMillis(60000);
+        ds.setMaxEvictableIdleTimeMillis(80000);
         
-        dataSource.setConnectionProperties(
+        ds.setConnectionProperties(
             "druid.stat.mergeSql=true;" +
-            "druid.stat.slowSqlMillis=5000"
+            "druid.stat.slowSqlMillis=5000" +
+            ("cursor".equals(FETCH_MODE) && !LocalDatabase.isEnabled() ? ";useCursorFetch=true" : "")
         );
         
         try {
-            dataSource.setFilters("stat");
+            ds.setFilters("stat");
         } catch (SQLException e) {
             log("Failed to set filters: " + e.getMessage());
         }
         
-        dataSource.setRemoveAbandoned(true);
-        dataSource.setRemoveAbandonedTimeout(3600);
-        dataSource.setLogAbandoned(true);
-        
+        ds.setRemoveAbandoned(true);
+        ds.setRemoveAbandonedTimeout(3600);
+        ds.setLogAbandoned(true);
+
+        if (ConnectionLifetimeTracker.isEnabled()) {
+            ConnectionLifetimeTracker.apply(ds);
+        }
+        if (LightweightValidation.isEnabled()) {
+            LightweightValidation.apply(ds);
+        }
+        if (scenario != null) {
+            scenario.applyPoolSettings(ds);
+        }
+        return ds;
+    }
+
+    /**
+     * 创建指向Writer的独立连接池（不影响Reader连接池的统计）
+     * MySQL下开启 rewriteBatchedStatements，批量INSERT会被驱动改写为多行INSERT
+     */
+    public static DruidDataSource createWriterDataSource(String name, int maxActive) throws SQLException {
+        DruidDataSource ds = new DruidDataSource();
+        ds.setName(name);
+        if (LocalDatabase.isEnabled()) {
+            ds.setUrl(LocalDatabase.start());
+            ds.setUsername(LocalDatabase.USERNAME);
+            ds.setPassword(LocalDatabase.PASSWORD);
+            ds.setDriverClassName("org.h2.Driver");
+        } else {
+            ds.setUrl(WRITER_DB_URL);
+            ds.setUsername(DB_USERNAME);
+            ds.setPassword(DB_PASSWORD);
+            ds.setDriverClassName("com.mysql.cj.jdbc.Driver");
+            ds.setConnectionProperties("rewriteBatchedStatements=true");
+        }
+        ds.setInitialSize(0);
+        ds.setMinIdle(0);
+        ds.setMaxActive(maxActive);
+        ds.setMaxWait(30000);
+        ds.setTestOnBorrow(false);
+        ds.setTestWhileIdle(true);
+        ds.setValidationQuery("SELECT 1");
+        ds.setValidationQueryTimeout(5);
+        ds.init();
+        log("Writer pool '" + name + "' initialized, endpoint: " + ds.getUrl() + ", maxActive: " + maxActive);
+        return ds;
+    }
+
+    /**
+     * 生成big_table测试数据
+     *   GEN_ROWS           生成行数（默认10000000）
+     *   GEN_THREADS        加载线程数（默认8）
+     *   GEN_BATCH          每批行数（默认1000）
+     *   GEN_PAYLOAD_BYTES  payload列长度（默认100）
+     *   GEN_START_ID       起始id（默认接在当前最大id之后）
+     */
+    public static void generateBigTable() throws SQLException, InterruptedException {
+        int threads = envInt("GEN_THREADS", 8);
+        DruidDataSource writer = createWriterDataSource("generator", threads);
         try {
-            dataSource.init();
-            log("Druid connection pool initialized successfully");
-            log("=== DB endpoint: " + DB_URL);
-            log("MaxActive: " + dataSource.getMaxActive());
-            log("TestOnBorrow: " + dataSource.isTestOnBorrow());
-            log("TestWhileIdle: " + dataSource.isTestWhileIdle());
-            log("KeepAlive: " + dataSource.isKeepAlive());
-            
-        } catch (SQLException e) {
-            log("ERROR - Failed to initialize Druid connection pool: " + e.getMessage());
-            e.printStackTrace();
+            BigTableGenerator generator = new BigTableGenerator(writer, threads,
+                    envInt("GEN_BATCH", 1000), envInt("GEN_PAYLOAD_BYTES", 100));
+            generator.createTable();
+            long startId = envLong("GEN_START_ID", -1);
+            if (startId < 0) {
+                startId = generator.maxId() + 1;
+            }
+            generator.generate(startId, envLong("GEN_ROWS", 10000000));
+        } finally {
+            writer.close();
         }
     }
 
     /**
      * 执行长查询并监控断连情况
+     * @return 查询是否成功完成
      */
-    public static void executeLongQuery(String sql) {
+    public static boolean executeLongQuery(String sql) {
+        return executeLongQuery(sql, null);
+    }
+
+    /**
+     * 执行长查询，progress非空时记录首个结果时间、已处理的行数和键值以及错误类别，供 ResilientQuery 重试和续扫
+     */
+    static boolean executeLongQuery(String sql, ResilientQuery.Progress progress) {
+        ReaderRouter.Endpoint endpoint = readerRouter != null ? readerRouter.route() : null;
+        DruidDataSource pool = endpoint != null ? endpoint.dataSource : dataSource;
         DruidPooledConnection conn = null;
         Statement stmt = null;
         ResultSet rs = null;
+        long startNanos = 0;
+        long responseNanos = 0;
         
         try {
             log("========== Starting Long Query ==========");
             printPoolStatus();
             
             // Acquire connection
-            log("Acquiring database connection...");
+            log("Acquiring database connection" + (endpoint != null ? " from reader-" + endpoint.index : "") + "...");
             long connStartTime = System.currentTimeMillis();
-            conn = dataSource.getConnection();
+            long acquireStartNanos = System.nanoTime();
+            conn = pool.getConnection();
+            long acquireNanos = System.nanoTime() - acquireStartNanos;
+            PhaseLatency.record(PhaseLatency.Phase.ACQUIRE, acquireNanos);
             long connEndTime = System.currentTimeMillis();
             
             log("✓ Successfully acquired database connection, time taken: " + (connEndTime - connStartTime) + "ms");
@@ -134,49 +337,77 @@ public class DruidLongQueryExample {
             log("✓ Auto-commit enabled (default) - 每条SQL自动提交");
             
             // Create Statement
-            stmt = conn.createStatement();
+            stmt = createStatement(conn);
             stmt.setQueryTimeout(0);  // No timeout for long queries
             
             log("Executing SQL: " + sql);
-            log("Query start time: " + dateFormat.format(new Date()));
+            log("Query start time: " + formatTime(System.currentTimeMillis()));
             
             long startTime = System.currentTimeMillis();
+            startNanos = System.nanoTime();
             rs = stmt.executeQuery(sql);
+            responseNanos = System.nanoTime();
+            if (progress != null) progress.responseNanos = responseNanos;
             
-            // 获取列信息
-            int columnCount = rs.getMetaData().getColumnCount();
+            // 获取列信息（元数据只读取一次，按列类型解码）
+            RowDecoder decoder = new RowDecoder(rs.getMetaData());
+            int keyIndex = progress != null && progress.keyColumn != null ? rs.findColumn(progress.keyColumn) : 0;
+            boolean typedKey = keyIndex > 0 && decoder.isLong(keyIndex);
             log("\n========== Query Results ==========");
-            log("Column count: " + columnCount);
+            log("Column count: " + decoder.columnCount());
             
             // 打印列名
-            StringBuilder header = new StringBuilder();
-            for (int i = 1; i <= columnCount; i++) {
-                header.append(rs.getMetaData().getColumnName(i));
-                if (i < columnCount) header.append(" | ");
-            }
-            log(header.toString());
+            log(decoder.header());
             log("--------------------------------------------------");
             
             // 处理结果集
+            // buffered模式下executeQuery返回时数据已全部到达，首行时间即整个读取时间；
+            // stream/cursor模式下首行时间只包含服务端产出第一批数据的时间
+            boolean countBytes = countsRowBytes();
+            long firstRowNanos = 0;
+            long bytes = 0;
             int count = 0;
             while (rs.next()) {
                 count++;
+                if (count == 1) {
+                    firstRowNanos = System.nanoTime();
+                    PhaseLatency.record(PhaseLatency.Phase.FIRST_ROW, firstRowNanos - startNanos);
+                    log("Time to first row: " + (firstRowNanos - startNanos) / 1000000 + " ms");
+                }
+                // 只有输出的行和需要统计字节数的模式才解码整行，其余行不读取列值
+                boolean printed = count <= 10 || count % 1000 == 0;
+                boolean decoded = countBytes || printed;
+                if (decoded) {
+                    decoder.read(rs);
+                }
+                if (countBytes) {
+                    bytes += decoder.rowBytes();
+                }
+                if (progress != null) {
+                    progress.rows++;
+                    // 只需要键值时只读取键列
+                    if (keyIndex > 0) progress.lastKey = decoded && typedKey ? decoder.getLong(keyIndex) : rs.getLong(keyIndex);
+                }
                 
                 // 打印前10条和后10条记录
-                if (count <= 10 || count % 1000 == 0) {
-                    StringBuilder row = new StringBuilder();
-                    for (int i = 1; i <= columnCount; i++) {
-                        row.append(rs.getString(i));
-                        if (i < columnCount) row.append(" | ");
-                    }
-                    log("Row " + count + ": " + row.toString());
+                if (printed) {
+                    log("Row " + count + ": " + decoder.format());
                 }
                 
                 // Print progress and connection status every 1000 records
                 if (count % 1000 == 0) {
-                    log("Progress: " + count + " records, connection status: " + (conn.isClosed() ? "Closed" : "Active"));
+                    double drainSec = (System.nanoTime() - firstRowNanos) / 1e9;
+                    log("Progress: " + count + " records, " + String.format("%.0f rows/s", drainSec > 0 ? count / drainSec : 0)
+                            + ", connection status: " + (conn.isClosed() ? "Closed" : "Active"));
                 }
             }
+            long drainEndNanos = System.nanoTime();
+            if (count > 0) {
+                PhaseLatency.record(PhaseLatency.Phase.DRAIN, drainEndNanos - firstRowNanos);
+            } else {
+                // 空结果集：首行阶段即为结果集读完的时间
+                PhaseLatency.record(PhaseLatency.Phase.FIRST_ROW, drainEndNanos - startNanos);
+            }
             
             long endTime = System.currentTimeMillis();
             long executionTime = endTime - startTime;
@@ -186,8 +417,19 @@ public class DruidLongQueryExample {
             log("Total rows returned: " + count);
             log("Query execution time: " + executionTime + " ms (" + (executionTime/1000.0) + " seconds)");
             log("Session active time total: " + sessionActiveTime + " ms (" + (sessionActiveTime/1000.0) + " seconds)");
+            if (count > 0) {
+                long drainNanos = drainEndNanos - firstRowNanos;
+                double drainSec = drainNanos / 1e9;
+                log("Time to first row: " + (firstRowNanos - startNanos) / 1000000 + " ms, drain time: " + drainNanos / 1000000 + " ms");
+                log(String.format("Row rate: %.0f rows/s", drainSec > 0 ? count / drainSec : 0)
+                        + (countBytes ? String.format(", byte rate: %.0f KB/s (%d bytes)", drainSec > 0 ? bytes / 1024.0 / drainSec : 0, bytes) : ""));
+            }
             log("Connection status: " + (conn.isClosed() ? "Closed" : "Active"));
-            log("Query end time: " + dateFormat.format(new Date()));
+            log("Query end time: " + formatTime(System.currentTimeMillis()));
+            LightweightValidation.markAlive(conn);
+            if (endpoint != null) readerRouter.finished(endpoint, true, responseNanos - startNanos, null);
+            PoolWarmer.firstQuery(acquireNanos, (count > 0 ? firstRowNanos : drainEndNanos) - startNanos);
+            return true;
             
         } catch (SQLException e) {
             log("!!!!! SQL Exception Occurred !!!!!");
@@ -195,20 +437,107 @@ public class DruidLongQueryExample {
             log("Error code: " + e.getErrorCode());
             log("SQL state: " + e.getSQLState());
             log("Error message: " + e.getMessage());
+            ErrorClassifier.Category category = ErrorClassifier.record(e);
+            log("Error category: " + category.label);
+            if (progress != null) {
+                progress.error = e;
+                progress.category = category;
+            }
             
             // Check if it's a connection error
-            if (isConnectionError(e)) {
+            if (category.connectionLost) {
                 log("*** Database disconnection detected! ***");
+                discardBrokenConnection(pool, conn);
+            }
+            if (endpoint != null) {
+                readerRouter.finished(endpoint, false, responseNanos != 0 ? responseNanos - startNanos : 0, category);
             }
             
-            e.printStackTrace();
+            log("Stack trace:", e);
+            return false;
         } finally {
             log("Cleaning up resources...");
+            long closeStartNanos = System.nanoTime();
             closeResource(rs, stmt, conn);
+            if (conn != null) {
+                PhaseLatency.record(PhaseLatency.Phase.CLOSE, System.nanoTime() - closeStartNanos);
+            }
             printPoolStatus();
         }
     }
     
+    /**
+     * 把断开的物理连接从连接池驱逐，避免归还后再被借出
+     * Druid的ExceptionSorter识别出致命错误时连接已被禁用，这里不再重复处理；
+     * 驱逐后 close() 只做清理，不会放回连接池
+     */
+    static void discardBrokenConnection(DruidDataSource pool, DruidPooledConnection conn) {
+        if (conn == null || conn.isDisable()) {
+            return;
+        }
+        pool.discardConnection(conn.getConnectionHolder());
+        log("Broken connection discarded from pool, discard count: " + pool.getDiscardCount());
+    }
+
+    /**
+     * 多Reader路由，未配置多个Reader时为null
+     */
+    static ReaderRouter readerRouter() {
+        return readerRouter;
+    }
+
+    /**
+     * 默认Reader连接池（多Reader时为第一个实例）
+     */
+    static DruidDataSource readerDataSource() {
+        return dataSource;
+    }
+
+    /**
+     * 全部Reader连接池（单Reader时只有 dataSource）
+     */
+    static List<DruidDataSource> readerDataSources() {
+        if (readerRouter != null) {
+            return readerRouter.dataSources();
+        }
+        return dataSource != null ? Collections.singletonList(dataSource) : Collections.<DruidDataSource>emptyList();
+    }
+
+    /**
+     * 按配置执行查询：启用重试时经 ResilientQuery，否则直接执行一次
+     */
+    static boolean runQuery(String sql) {
+        return resilientQuery != null ? resilientQuery.execute(sql) : executeLongQuery(sql);
+    }
+
+    /**
+     * stream/cursor模式下逐行统计字节数（buffered模式下数据在executeQuery时已全部到达，不统计）
+     */
+    static boolean countsRowBytes() {
+        return !"buffered".equals(FETCH_MODE);
+    }
+
+    /**
+     * 按FETCH_MODE创建Statement
+     */
+    static Statement createStatement(DruidPooledConnection conn) throws SQLException {
+        if ("buffered".equals(FETCH_MODE)) {
+            return conn.createStatement();
+        }
+        Statement stmt = conn.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        if ("stream".equals(FETCH_MODE) && !LocalDatabase.isEnabled()) {
+            // Connector/J约定：只进只读 + Integer.MIN_VALUE 表示逐行流式读取
+            stmt.setFetchSize(Integer.MIN_VALUE);
+        } else if ("stream".equals(FETCH_MODE)) {
+            // H2不接受负的fetchSize，本地模式下按FETCH_SIZE分批读取
+            stmt.setFetchSize(FETCH_SIZE);
+        } else if ("cursor".equals(FETCH_MODE)) {
+            stmt.setFetchSize(FETCH_SIZE);
+        }
+        // 未知FETCH_MODE使用驱动默认fetchSize（启动时已提示）
+        return stmt;
+    }
+
     /**
      * 测试长查询 + 空闲等待 + 重新查询场景
      * 
@@ -218,11 +547,11 @@ public class DruidLongQueryExample {
         
         // First query
         log("\n--- First Query ---");
-        executeLongQuery(sql);
+        runQuery(sql);
         
         // Wait
         log("\n--- Starting Idle Wait for " + idleSeconds + " seconds ---");
-        log("Wait start time: " + dateFormat.format(new Date()));
+        log("Wait start time: " + formatTime(System.currentTimeMillis()));
         printPoolStatus();
         
         try {
@@ -230,40 +559,25 @@ public class DruidLongQueryExample {
                 Thread.sleep(1000);
                 if (i % 30 == 0) {  // Print every 30 seconds
                     log("Waited " + i + "/" + idleSeconds + " seconds...");
-                    printPoolStatus();
+                    // 采样器运行时由其按窗口输出连接池统计
+                    if (poolSampler == null) {
+                        printPoolStatus();
+                    }
                 }
             }
         } catch (InterruptedException e) {
-            e.printStackTrace();
+            log("Idle wait interrupted", e);
         }
         
-        log("Wait end time: " + dateFormat.format(new Date()));
+        log("Wait end time: " + formatTime(System.currentTimeMillis()));
         
         // Second query
         log("\n--- Second Query (Test for Disconnection) ---");
-        executeLongQuery(sql);
+        runQuery(sql);
         
         log("\n########## Test Scenario Completed ##########\n");
     }
     
-    /**
-     * 判断是否为连接断开错误
-     */
-    private static boolean isConnectionError(SQLException e) {
-        String msg = e.getMessage().toLowerCase();
-        int errorCode = e.getErrorCode();
-        
-        return msg.contains("connection") && 
-               (msg.contains("closed") || 
-                msg.contains("broken") || 
-                msg.contains("reset") ||
-                msg.contains("timeout") ||
-                msg.contains("lost") ||
-                errorCode == 0 ||
-                errorCode == 2006 ||  // MySQL: MySQL server has gone away
-                errorCode == 2013);   // MySQL: Lost connection to MySQL server
-    }
-
     /**
      * 关闭资源
      */
@@ -271,17 +585,17 @@ public class DruidLongQueryExample {
         try {
             if (rs != null) rs.close();
         } catch (SQLException e) {
-            e.printStackTrace();
+            log("Failed to close resource: " + e.getMessage(), e);
         }
         try {
             if (stmt != null) stmt.close();
         } catch (SQLException e) {
-            e.printStackTrace();
+            log("Failed to close resource: " + e.getMessage(), e);
         }
         try {
-            if (conn != null) conn.close();
+            if (conn != null) LightweightValidation.release(conn);
         } catch (SQLException e) {
-            e.printStackTrace();
+            log("Failed to close resource: " + e.getMessage(), e);
         }
     }
 
@@ -335,14 +649,109 @@ public class DruidLongQueryExample {
     //     }
     // }
 
+    /**
+     * 启动连接池采样器
+     *   POOL_SAMPLE_MS      采样间隔（默认1000毫秒，0表示不启用）
+     *   POOL_SAMPLE_WINDOW  每个统计窗口的采样数（默认30）
+     *   POOL_SAMPLE_CSV     结束时导出完整时间序列的CSV路径（可选）
+     */
+    public static void startPoolSampler() {
+        long intervalMillis = envLong("POOL_SAMPLE_MS", 1000);
+        if (intervalMillis <= 0 || dataSource == null) {
+            return;
+        }
+        // 预分配约24小时的采样
+        int capacity = (int) Math.min(1 << 20, Math.max(1024, 86400000L / intervalMillis));
+        poolSampler = new PoolSampler(dataSource, intervalMillis, envInt("POOL_SAMPLE_WINDOW", 30), capacity);
+        poolSampler.start();
+    }
+
+    /**
+     * 停止采样器并按需导出CSV
+     */
+    public static void stopPoolSampler() {
+        if (poolSampler == null) {
+            return;
+        }
+        poolSampler.stop();
+        String csv = System.getenv("POOL_SAMPLE_CSV");
+        if (csv != null && !csv.trim().isEmpty()) {
+            poolSampler.writeCsv(csv.trim());
+        }
+        poolSampler = null;
+    }
+
+    /**
+     * 启动自适应连接池大小控制器（ADAPTIVE_POOL=true），多Reader时每个连接池一个
+     *   ADAPTIVE_MIN_ACTIVE      maxActive下限（默认4）
+     *   ADAPTIVE_MAX_ACTIVE      maxActive上限（默认64）
+     *   ADAPTIVE_MIN_IDLE        minIdle下限（默认1）
+     *   ADAPTIVE_STEP            每次调整的连接数（默认4）
+     *   ADAPTIVE_TARGET_WAIT_MS  平均取连接等待时间目标（默认50毫秒）
+     *   ADAPTIVE_DECISION_SEC    决策周期（默认5秒）
+     *   ADAPTIVE_SHRINK_AFTER    连续多少个空闲周期后缩小（默认3）
+     */
+    public static void startPoolControllers() {
+        if (!"true".equalsIgnoreCase(System.getenv("ADAPTIVE_POOL")) || dataSource == null) {
+            return;
+        }
+        for (DruidDataSource pool : readerDataSources()) {
+            PoolSizeController controller = new PoolSizeController(pool,
+                    envInt("ADAPTIVE_MIN_ACTIVE", 4), envInt("ADAPTIVE_MAX_ACTIVE", 64), envInt("ADAPTIVE_MIN_IDLE", 1),
+                    envInt("ADAPTIVE_STEP", 4), envLong("ADAPTIVE_TARGET_WAIT_MS", 50),
+                    envInt("ADAPTIVE_DECISION_SEC", 5), envInt("ADAPTIVE_SHRINK_AFTER", 3));
+            controller.start();
+            poolControllers.add(controller);
+        }
+    }
+
+    public static void stopPoolControllers() {
+        for (PoolSizeController controller : poolControllers) {
+            controller.stop();
+        }
+        poolControllers.clear();
+    }
+
+    /**
+     * 启动指标导出（见 MetricsExporter），启动失败不影响测试本身
+     */
+    public static void startMetricsExporter() {
+        metricsExporter = MetricsExporter.fromEnv();
+        if (metricsExporter == null) {
+            return;
+        }
+        try {
+            metricsExporter.start();
+        } catch (Exception e) {
+            log("[METRICS] Failed to start metrics exporter: " + e);
+            metricsExporter.stop();
+            metricsExporter = null;
+        }
+    }
+
+    public static void stopMetricsExporter() {
+        if (metricsExporter != null) {
+            metricsExporter.stop();
+            metricsExporter = null;
+        }
+    }
+
     /**
      * 关闭连接池
      */
     public static void closeDataSource() {
-        if (dataSource != null) {
+        LightweightValidation.shutdown();
+        ConnectionLifetimeTracker.poolClosing();
+        if (readerRouter != null) {
+            readerRouter.close();
+            readerRouter = null;
+            log("Reader connection pools closed");
+        } else if (dataSource != null) {
             dataSource.close();
             log("Connection pool closed");
         }
+        PoolWarmer.shutdown();
+        LocalDatabase.stop();
     }
 
     /**
@@ -350,7 +759,7 @@ public class DruidLongQueryExample {
      */
     public static void printPoolStatus() {
         if (dataSource != null) {
-            log("\n===== Connection Pool Status [" + dateFormat.format(new Date()) + "] =====");
+            log("\n===== Connection Pool Status [" + formatTime(System.currentTimeMillis()) + "] =====");
             log("Active connections: " + dataSource.getActiveCount());
             log("Idle connections: " + dataSource.getPoolingCount());
             log("Waiting threads: " + dataSource.getWaitThreadCount());
@@ -362,27 +771,213 @@ public class DruidLongQueryExample {
     }
     
     /**
-     * 日志输出
+     * 日志输出（异步、线程安全，见 AsyncLog）
+     */
+    static void log(String message) {
+        AsyncLog.get().log(message);
+    }
+
+    /**
+     * 日志输出并附带异常堆栈，与其他日志保持顺序
      */
-    private static void log(String message) {
-        System.out.println("[" + dateFormat.format(new Date()) + "] " + message);
+    static void log(String message, Throwable t) {
+        AsyncLog.get().log(message, t);
+    }
+
+    /**
+     * 格式化时间戳，线程安全
+     */
+    static String formatTime(long epochMillis) {
+        return AsyncLog.TIME_FORMAT.format(Instant.ofEpochMilli(epochMillis));
+    }
+
+    /**
+     * 读取整数型环境变量，未设置时使用默认值
+     */
+    static int envInt(String name, int defaultValue) {
+        String v = System.getenv(name);
+        return v != null && !v.trim().isEmpty() ? Integer.parseInt(v.trim()) : defaultValue;
+    }
+
+    static long envLong(String name, long defaultValue) {
+        String v = System.getenv(name);
+        return v != null && !v.trim().isEmpty() ? Long.parseLong(v.trim()) : defaultValue;
+    }
+
+    static String envString(String name, String defaultValue) {
+        String v = System.getenv(name);
+        return v != null && !v.trim().isEmpty() ? v.trim() : defaultValue;
+    }
+
+    /**
+     * 并发负载模式：多个worker同时对Reader发起长查询，观察连接池饱和时的行为
+     * 参数通过环境变量配置：
+     *   LOAD_WORKERS       worker线程数（默认20）
+     *   LOAD_CONCURRENCY   目标并发数（默认等于LOAD_WORKERS）
+     *   LOAD_RAMP_UP_SEC   爬升时间（默认30秒）
+     *   LOAD_DURATION_SEC  总时长（默认0，不限）
+     *   LOAD_ITERATIONS    总迭代次数（默认100；与时长同时设置时先到先停）
+     *   LOAD_THINK_MS      每次查询后的等待（默认1000毫秒）
+     */
+    public static LoadEngine.Report runLoad(final String sql) throws InterruptedException {
+        return runLoad(sql, null);
+    }
+
+    /**
+     * 并发负载模式，interference非空时每个查询都登记到DDL干扰时间线
+     */
+    public static LoadEngine.Report runLoad(final String sql, final DdlInterference interference) throws InterruptedException {
+        int workers = envInt("LOAD_WORKERS", 20);
+        int concurrency = envInt("LOAD_CONCURRENCY", workers);
+        long rampUpMillis = envLong("LOAD_RAMP_UP_SEC", 30) * 1000;
+        long durationMillis = envLong("LOAD_DURATION_SEC", 0) * 1000;
+        long iterations = envLong("LOAD_ITERATIONS", 100);
+        long thinkMillis = envLong("LOAD_THINK_MS", 1000);
+
+        log("========== Concurrent Load Mode ==========");
+        log("Workers: " + workers + ", target concurrency: " + concurrency);
+        log("Ramp-up: " + rampUpMillis / 1000 + "s, duration: " + (durationMillis > 0 ? durationMillis / 1000 + "s" : "unlimited")
+                + ", iterations: " + (iterations > 0 ? String.valueOf(iterations) : "unlimited"));
+        log("Pool maxActive: " + dataSource.getMaxActive());
+
+        LoadEngine engine = new LoadEngine(workers, concurrency, rampUpMillis, durationMillis, iterations, thinkMillis);
+        return engine.run(new LoadEngine.Task() {
+            @Override
+            public boolean run(int workerId, long iteration) {
+                if (interference == null) {
+                    return runQuery(sql);
+                }
+                DdlInterference.Event event = interference.readerStarted(workerId);
+                boolean ok = false;
+                try {
+                    ok = runQuery(sql);
+                    return ok;
+                } finally {
+                    interference.readerFinished(event, ok);
+                }
+            }
+        });
+    }
+
+    /**
+     * 并发负载 + 内置DDL干扰：独立的Writer连接池在Reader查询开始后按偏移执行DDL/DML
+     *   DDL_STATEMENTS      分号分隔的语句，{col} 替换为临时列名（默认 ADD COLUMN / UPDATE / DROP COLUMN）
+     *   DDL_OFFSET_MS       Reader查询开始后多久执行（默认5000）
+     *   DDL_GAP_MS          同一周期内语句间隔（默认1000）
+     *   DDL_EVERY_N_QUERIES 每N个Reader查询触发一个周期（默认1，周期未结束时跳过）
+     *   DDL_TIMELINE_CSV    合并时间线CSV路径（可选）
+     * 其余负载参数同 runLoad
+     */
+    public static void runWithDdlInterference(String sql) throws SQLException, InterruptedException {
+        String statements = System.getenv("DDL_STATEMENTS") != null
+            ? System.getenv("DDL_STATEMENTS")
+            : DdlInterference.DEFAULT_STATEMENTS;
+        DruidDataSource writer = createWriterDataSource("ddl-writer", 2);
+        DdlInterference interference = new DdlInterference(writer,
+                DdlInterference.parseStatements(statements),
+                envLong("DDL_OFFSET_MS", 5000), envLong("DDL_GAP_MS", 1000), envInt("DDL_EVERY_N_QUERIES", 1));
+        try {
+            runLoad(sql, interference);
+        } finally {
+            interference.stop();
+            interference.report(System.getenv("DDL_TIMELINE_CSV"));
+            writer.close();
+        }
+    }
+
+    /**
+     * 开环定速模式：按固定速率发起查询，不等待上一个查询完成
+     *   OPEN_LOOP_RATE          每秒发起的查询数（默认5，可为小数）
+     *   OPEN_LOOP_DURATION_SEC  发压时长（默认300秒）
+     *   OPEN_LOOP_MAX_INFLIGHT  同时执行的最大查询数（默认200，超过的排队）
+     *   OPEN_LOOP_DRAIN_SEC     发压结束后等待在途查询的时间（默认120秒）
+     */
+    public static void runOpenLoop(final String sql) throws InterruptedException {
+        String rate = System.getenv("OPEN_LOOP_RATE");
+        OpenLoopGenerator generator = new OpenLoopGenerator(
+                rate != null && !rate.trim().isEmpty() ? Double.parseDouble(rate.trim()) : 5.0,
+                envLong("OPEN_LOOP_DURATION_SEC", 300) * 1000,
+                envInt("OPEN_LOOP_MAX_INFLIGHT", 200));
+        generator.run(new LoadEngine.Task() {
+            @Override
+            public boolean run(int workerId, long iteration) {
+                return runQuery(sql);
+            }
+        }, envLong("OPEN_LOOP_DRAIN_SEC", 120) * 1000);
     }
 
     /**
      * 主方法 - 简单 SLEEP 查询模式
      * DDL 由另一个实例执行
+     *
+     * 运行模式（第一个参数）：
+     *   loop      单线程循环执行（默认）
+     *   load      并发负载模式，见 runLoad
+     *   openloop  开环定速模式，见 runOpenLoop
+     *   ddl       并发负载 + 内置DDL干扰，见 runWithDdlInterference
+     *   generate  向Writer批量生成big_table数据，见 generateBigTable
+     *   scenario  按场景文件执行（第二个参数或SCENARIO_FILE），见 Scenario
+     *   idle      长查询 + 空闲等待 + 再次查询，见 testLongQueryWithIdle（IDLE_SECONDS，默认600）
+     *   keyset    按主键分块（可并行）扫描整表，断连只重做一个块，并与整表单条查询对比，见 KeysetScan
+     *   parallel  按主键范围分区、ForkJoin并行扫描并按序合并结果，对比不同分区数的吞吐，见 ParallelScan
+     *   pipeline  读取线程写入有界环形缓冲、多个处理线程消费，对比连接占用时间，见 RowPipeline
+     *   decodebench  对比改造前的读取循环与当前读取循环（RowDecoder）的分配量和GC停顿
+     *   sessions  逐级增加同时阻塞的长查询会话，测量每个在途查询的内存和最大并发会话数，见 SessionCapacity
+     * load/ddl/scenario/openloop/sessions 的worker线程由 LOAD_THREADS（platform / virtual）决定
+     *   logbench  对比新旧日志路径的每行分配量（不连接数据库）
+     *   validationbench  对比 SELECT 1 / isValid / isValid+近期跳过 三种借出校验（本地H2），见 LightweightValidation
      */
     public static void main(String[] args) {
+        String mode = args.length > 0 ? args[0] : "loop";
+        if ("logbench".equals(mode)) {
+            AsyncLog.measureAllocation(envInt("LOG_BENCH_LINES", 200000));
+            AsyncLog.get().close();
+            return;
+        }
+        if ("validationbench".equals(mode)) {
+            try {
+                LightweightValidation.benchmark(envInt("VALIDATION_BENCH_BORROWS", 20000));
+            } catch (Exception e) {
+                log("Validation benchmark failed: " + e);
+            } finally {
+                LocalDatabase.stop();
+                AsyncLog.get().close();
+            }
+            return;
+        }
         try {
             log("========================================");
             log("  Druid Long Query Testing Tool");
             log("  Mode: SELECT + SLEEP(60) - 持续60秒的查询");
             log("  Note: 查询期间在Primary执行DDL");
             log("========================================\n");
+
+            if ("generate".equals(mode)) {
+                generateBigTable();
+                return;
+            }
+            
+            Scenario scenario = null;
+            if ("scenario".equals(mode)) {
+                String path = args.length > 1 ? args[1] : System.getenv("SCENARIO_FILE");
+                if (path == null) {
+                    log("ERROR - scenario mode requires a scenario file path");
+                    return;
+                }
+                scenario = Scenario.load(path);
+            }
             
             // 1. 初始化连接池
-            initDataSource();
+            initDataSource(scenario);
             printPoolStatus();
+            startPoolSampler();
+            startPoolControllers();
+            startMetricsExporter();
+            if (dataSource != null) {
+                sqlStatReport = SqlStatReport.fromEnv();
+                sqlStatReport.start();
+            }
+            resilientQuery = ResilientQuery.fromEnv();
             
             // 2. 定义慢查询SQL - SELECT + SLEEP 确保持续60秒
             // 目的：复现 Aurora 在 DDL 执行时断开正在执行的 SQL 连接
@@ -390,7 +985,59 @@ public class DruidLongQueryExample {
             //   10:00:00 Reader (SELECT) - 开始执行，持续60秒
             //   10:00:05 Writer (DDL)    - 5秒后执行 ALTER TABLE
             //   10:00:?? Reader          - 连接被中断？
-            final String longQuerySQL = "SELECT *, SLEEP(60) FROM big_table LIMIT 1";
+            final String longQuerySQL = System.getenv("QUERY_SQL") != null
+                ? System.getenv("QUERY_SQL")
+                : "SELECT *, SLEEP(60) FROM big_table LIMIT 1";
+
+            if (scenario != null) {
+                scenario.run();
+                printPoolStatus();
+                return;
+            }
+            if ("load".equals(mode)) {
+                runLoad(longQuerySQL);
+                printPoolStatus();
+                return;
+            }
+            if ("ddl".equals(mode)) {
+                runWithDdlInterference(longQuerySQL);
+                printPoolStatus();
+                return;
+            }
+            if ("openloop".equals(mode)) {
+                runOpenLoop(longQuerySQL);
+                printPoolStatus();
+                return;
+            }
+            if ("keyset".equals(mode)) {
+                KeysetScan.fromEnv().run();
+                printPoolStatus();
+                return;
+            }
+            if ("parallel".equals(mode)) {
+                ParallelScan.fromEnv().run();
+                printPoolStatus();
+                return;
+            }
+            if ("pipeline".equals(mode)) {
+                RowPipeline.fromEnv().run();
+                printPoolStatus();
+                return;
+            }
+            if ("sessions".equals(mode)) {
+                SessionCapacity.fromEnv().run();
+                printPoolStatus();
+                return;
+            }
+            if ("decodebench".equals(mode)) {
+                RowDecoder.benchmark(envString("DECODE_BENCH_SQL", "SELECT * FROM " + envString("SCAN_TABLE", "big_table")),
+                        envInt("DECODE_BENCH_ROUNDS", 2));
+                return;
+            }
+            if ("idle".equals(mode)) {
+                testLongQueryWithIdle(longQuerySQL, envInt("IDLE_SECONDS", 600));
+                return;
+            }
             
             // 3. 测试参数
             final int threadCount = 1;  // 单线程执行
@@ -410,18 +1057,17 @@ public class DruidLongQueryExample {
             log("Loop count: " + loopCount);
             log("Each query duration: 60 seconds (SLEEP)");
             log("SQL: " + longQuerySQL);
-            log("Start time: " + dateFormat.format(new Date(startTime)));
+            log("Start time: " + formatTime(startTime));
             log("Press Ctrl+C to stop anytime\n");
 
             // 4. 循环执行 SLEEP 查询
             for (int i = 1; i <= loopCount; i++) {
                 log("\n========== Loop " + i + "/" + loopCount + " ==========");
                 try {
-                    executeLongQuery(longQuerySQL);
+                    runQuery(longQuerySQL);
                     log("Loop " + i + " completed successfully");
                 } catch (Exception e) {
-                    log("Loop " + i + " ★★★ Exception: " + e.getMessage() + " ★★★");
-                    e.printStackTrace();
+                    log("Loop " + i + " ★★★ Exception: " + e.getMessage() + " ★★★", e);
                 }
                 
                 // 每轮之间短暂等待
@@ -433,10 +1079,26 @@ public class DruidLongQueryExample {
             printPoolStatus();
         } catch (Exception e) {
             log("!!!!! Program execution error !!!!!");
-            log("Error: " + e.getMessage());
-            e.printStackTrace();
+            log("Error: " + e.getMessage(), e);
         } finally {
+            PhaseLatency.report(System.getenv("LATENCY_HDR_LOG") != null ? System.getenv("LATENCY_HDR_LOG") : "latency.hlog");
+            if (resilientQuery != null) {
+                resilientQuery.report();
+            }
+            ErrorClassifier.report();
+            if (sqlStatReport != null) {
+                sqlStatReport.stop();
+                sqlStatReport = null;
+            }
+            if (readerRouter != null) {
+                readerRouter.report();
+            }
+            stopMetricsExporter();
+            stopPoolControllers();
+            stopPoolSampler();
             closeDataSource();
+            ConnectionLifetimeTracker.report();
+            AsyncLog.get().close();
         }
     }
 }
@@ -0,0 +1,142 @@
+import com.alibaba.druid.pool.GetConnectionTimeoutException;
+import com.mysql.cj.jdbc.exceptions.MySQLStatementCancelledException;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.sql.SQLNonTransientConnectionException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTimeoutException;
+import java.sql.SQLTransientConnectionException;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * SQL错误分类
+ * 按异常类型、厂商错误码、SQLState类别依次判断，不做消息字符串匹配；
+ * 每个类别的累计次数在运行结束时输出
+ */
+public final class ErrorClassifier {
+
+    /**
+     * 错误类别
+     * retryable      - 稍后重试有望成功
+     * connectionLost - 物理连接已不可用，需要从连接池驱逐
+     */
+    enum Category {
+        NETWORK_DROP("network drop", true, true),
+        SERVER_KILL("server kill", true, true),
+        TIMEOUT("timeout", false, false),
+        DDL_METADATA_LOCK("DDL metadata lock", true, false),
+        POOL_EXHAUSTION("pool exhaustion", true, false),
+        OTHER("other", false, false);
+
+        final String label;
+        final boolean retryable;
+        final boolean connectionLost;
+
+        Category(String label, boolean retryable, boolean connectionLost) {
+            this.label = label;
+            this.retryable = retryable;
+            this.connectionLost = connectionLost;
+        }
+    }
+
+    private static final Category[] CATEGORIES = Category.values();
+    private static final AtomicLongArray COUNTS = new AtomicLongArray(CATEGORIES.length);
+
+    private ErrorClassifier() {
+    }
+
+    /**
+     * 分类并计数
+     */
+    static Category record(SQLException e) {
+        Category category = classify(e);
+        COUNTS.incrementAndGet(category.ordinal());
+        return category;
+    }
+
+    /**
+     * 某类别的累计次数
+     */
+    static long count(Category category) {
+        return COUNTS.get(category.ordinal());
+    }
+
+    static Category classify(SQLException e) {
+        // 1. 异常类型（Connector/J的CommunicationsException继承自SQLRecoverableException）
+        if (e instanceof GetConnectionTimeoutException) {
+            // 连接池等待超时；数据库不可达时Druid把建连错误作为cause
+            Throwable cause = e.getCause();
+            return cause instanceof SQLException && classify((SQLException) cause) == Category.NETWORK_DROP
+                    ? Category.NETWORK_DROP : Category.POOL_EXHAUSTION;
+        }
+        if (e instanceof SQLRecoverableException
+                || e instanceof SQLNonTransientConnectionException
+                || e instanceof SQLTransientConnectionException) {
+            return Category.NETWORK_DROP;
+        }
+        if (e instanceof SQLTimeoutException) {
+            return Category.TIMEOUT;
+        }
+        if (e instanceof MySQLStatementCancelledException) {
+            return Category.SERVER_KILL;
+        }
+
+        // 2. 厂商错误码（MySQL / H2）
+        switch (e.getErrorCode()) {
+            case 2006:   // MySQL server has gone away
+            case 2013:   // Lost connection to MySQL server during query
+            case 2055:   // Lost connection to MySQL server at '%s', system error
+            case 90028:  // H2: IO Exception
+            case 90067:  // H2: Connection is broken
+                return Category.NETWORK_DROP;
+            case 1053:   // Server shutdown in progress
+            case 1317:   // Query execution was interrupted (KILL QUERY)
+            case 1927:   // Connection was killed
+            case 3169:   // Session was killed
+            case 90121:  // H2: Database is already closed
+                return Category.SERVER_KILL;
+            case 3024:   // Query execution was interrupted, maximum statement execution time exceeded
+            case 57014:  // H2: Statement was canceled or the session timed out
+                return Category.TIMEOUT;
+            case 1205:   // Lock wait timeout exceeded（只读查询上通常是等待元数据锁）
+            case 1412:   // Table definition has changed, please retry transaction
+            case 50200:  // H2: Timeout trying to lock table
+                return Category.DDL_METADATA_LOCK;
+            default:
+                break;
+        }
+
+        // 3. SQLState类别
+        String state = e.getSQLState();
+        if (state != null && state.length() >= 2) {
+            if (state.startsWith("08")) {
+                return Category.NETWORK_DROP;
+            }
+            if (state.startsWith("70")) {
+                return Category.SERVER_KILL;
+            }
+            if (state.startsWith("HYT")) {
+                return Category.TIMEOUT;
+            }
+        }
+
+        // 4. 驱动未转换的底层IO异常
+        return e.getCause() instanceof IOException ? Category.NETWORK_DROP : Category.OTHER;
+    }
+
+    /**
+     * 输出各类别的错误次数
+     */
+    public static void report() {
+        DruidLongQueryExample.log("\n========== SQL Errors by Category ==========");
+        long total = 0;
+        for (Category c : CATEGORIES) {
+            long n = COUNTS.get(c.ordinal());
+            total += n;
+            DruidLongQueryExample.log(String.format("%-18s %8d", c.label, n));
+        }
+        DruidLongQueryExample.log(String.format("%-18s %8d", "total", total));
+        DruidLongQueryExample.log("============================================");
+    }
+}
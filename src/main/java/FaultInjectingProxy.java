@@ -0,0 +1,229 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 本地TCP故障注入代理
+ * 位于连接池与本地数据库之间，可以给服务端响应增加延迟，或在查询进行中切断连接（RST），
+ * 用于在没有网络的开发机上模拟Aurora Reader断连
+ */
+public class FaultInjectingProxy {
+
+    private final String upstreamHost;
+    private final int upstreamPort;
+    private final List<Link> links = new CopyOnWriteArrayList<Link>();
+    private final AtomicLong droppedCount = new AtomicLong();
+
+    private volatile long latencyMillis;
+    private volatile boolean running;
+    private ServerSocket serverSocket;
+
+    public FaultInjectingProxy(String upstreamHost, int upstreamPort) {
+        this.upstreamHost = upstreamHost;
+        this.upstreamPort = upstreamPort;
+    }
+
+    /**
+     * 在本地随机端口上开始监听，返回端口号
+     */
+    public synchronized int start() throws IOException {
+        serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        running = true;
+        Thread acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                acceptLoop();
+            }
+        }, "fault-proxy-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        return serverSocket.getLocalPort();
+    }
+
+    public synchronized void stop() {
+        running = false;
+        try {
+            if (serverSocket != null) serverSocket.close();
+        } catch (IOException ignored) {
+        }
+        for (Link link : links) {
+            link.close(false);
+        }
+    }
+
+    /**
+     * 每次转发服务端响应前额外等待的时间（每个请求的响应只等待一次）
+     */
+    public void setLatencyMillis(long latencyMillis) {
+        this.latencyMillis = Math.max(0, latencyMillis);
+    }
+
+    /**
+     * 切断所有正在等待服务端响应的连接（即查询执行中的连接）
+     * @param minBusyMillis 只切断已等待超过该时间的连接
+     * @return 切断的连接数
+     */
+    public int dropBusyConnections(long minBusyMillis) {
+        int n = 0;
+        long now = System.nanoTime();
+        for (Link link : links) {
+            if (link.isBusy() && now - link.lastRequestNanos >= minBusyMillis * 1000000L) {
+                link.close(true);
+                n++;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * 切断所有连接，包括池中空闲的连接
+     */
+    public int dropAllConnections() {
+        int n = 0;
+        for (Link link : links) {
+            link.close(true);
+            n++;
+        }
+        return n;
+    }
+
+    public int getOpenConnections() {
+        return links.size();
+    }
+
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    private void acceptLoop() {
+        while (running) {
+            Socket client = null;
+            Socket upstream = null;
+            try {
+                client = serverSocket.accept();
+                upstream = new Socket();
+                upstream.connect(new InetSocketAddress(upstreamHost, upstreamPort), 5000);
+                client.setTcpNoDelay(true);
+                upstream.setTcpNoDelay(true);
+                Link link = new Link(client, upstream);
+                links.add(link);
+                link.start();
+            } catch (IOException e) {
+                // 上游连接失败时关闭已接受的客户端socket，避免每次失败泄漏一个文件描述符
+                closeQuietly(client);
+                closeQuietly(upstream);
+                if (running) {
+                    DruidLongQueryExample.log("Fault proxy accept error: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private static void closeQuietly(Socket socket) {
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * 一条被代理的连接：client <-> upstream 两个方向各一个转发线程
+     */
+    private class Link {
+        final Socket client;
+        final Socket upstream;
+        volatile long lastRequestNanos;
+        volatile long lastResponseNanos;
+        private volatile boolean closed;
+
+        Link(Socket client, Socket upstream) {
+            this.client = client;
+            this.upstream = upstream;
+        }
+
+        boolean isBusy() {
+            return !closed && lastRequestNanos > lastResponseNanos;
+        }
+
+        void start() {
+            pump(client, upstream, true, "fault-proxy-req");
+            pump(upstream, client, false, "fault-proxy-resp");
+        }
+
+        private void pump(final Socket from, final Socket to, final boolean request, String name) {
+            Thread t = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    byte[] buf = new byte[16 * 1024];
+                    try {
+                        InputStream in = from.getInputStream();
+                        OutputStream out = to.getOutputStream();
+                        int n;
+                        while ((n = in.read(buf)) >= 0) {
+                            if (request) {
+                                lastRequestNanos = System.nanoTime();
+                            } else if (isBusy()) {
+                                // 只在一次响应的第一个数据块前等待，大结果集分块转发时不重复累加延迟
+                                long delay = latencyMillis;
+                                if (delay > 0) {
+                                    Thread.sleep(delay);
+                                }
+                            }
+                            out.write(buf, 0, n);
+                            out.flush();
+                            if (!request) {
+                                lastResponseNanos = System.nanoTime();
+                            }
+                        }
+                    } catch (SocketException e) {
+                        // 连接被关闭或被注入故障切断
+                    } catch (IOException e) {
+                        // 同上
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        close(false);
+                    }
+                }
+            }, name);
+            t.setDaemon(true);
+            t.start();
+        }
+
+        /**
+         * @param reset true时以RST方式关闭客户端socket，模拟网络中断
+         */
+        void close(boolean reset) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            links.remove(this);
+            if (reset) {
+                droppedCount.incrementAndGet();
+                try {
+                    client.setSoLinger(true, 0);
+                } catch (SocketException ignored) {
+                }
+            }
+            try {
+                client.close();
+            } catch (IOException ignored) {
+            }
+            try {
+                upstream.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
@@ -0,0 +1,352 @@
+import com.alibaba.druid.pool.DruidDataSource;
+import com.alibaba.druid.pool.DruidPooledConnection;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * keyset分块扫描（keyset模式）
+ * 把整表扫描拆成 WHERE key > ? AND key <= ? ORDER BY key LIMIT ? 的小块，每块单独借出、归还连接，
+ * 连接只在一个块的执行期间被占用。每个分区在块成功后记录检查点（已处理到的键值），
+ * 断连时驱逐坏连接、退避后从检查点重新执行当前块，只丢失一个块的进度。
+ * KEYSET_PARALLEL > 1 时按 [MIN(key), MAX(key)] 等分为多个分区，各分区在独立连接上并行扫描。
+ * KEYSET_COMPARE=true（默认）时随后执行一次整表单条查询，对比扫描时间和吞吐
+ *
+ * 环境变量：
+ *   SCAN_TABLE            扫描的表（默认big_table）
+ *   SCAN_KEY              单调递增的整数主键（默认id）
+ *   SCAN_COLUMNS          查询列（默认*）
+ *   KEYSET_CHUNK_ROWS     每块行数（默认10000）
+ *   KEYSET_PARALLEL       并行分区数（默认1）
+ *   KEYSET_MAX_RETRIES    每个块的最多重试次数（默认10）
+ *   KEYSET_BACKOFF_MS     重试退避起点（默认500，上限RETRY_BACKOFF_MAX_MS）
+ *   KEYSET_COMPARE        是否执行整表单条查询作对比（默认true）
+ */
+public class KeysetScan {
+
+    /**
+     * 一个键值分区 (lowKey, highKey]，checkpoint为已完成块的最大键值
+     */
+    static class Partition {
+        final int index;
+        final long highKey;
+        volatile long checkpoint;
+        long rows;
+        long chunks;
+        long retries;
+        long rowsReread;
+        String failure;
+
+        Partition(int index, long lowKey, long highKey) {
+            this.index = index;
+            this.highKey = highKey;
+            this.checkpoint = lowKey;
+        }
+    }
+
+    private final String table;
+    private final String key;
+    private final String columns;
+    private final int chunkRows;
+    private final int parallel;
+    private final int maxRetries;
+    private final long backoffMillis;
+    private final long maxBackoffMillis;
+
+    private final List<Long> chunkNanos = new ArrayList<Long>();
+    private final AtomicLong maxHoldNanos = new AtomicLong();
+
+    public KeysetScan(String table, String key, String columns, int chunkRows, int parallel, int maxRetries,
+                      long backoffMillis, long maxBackoffMillis) {
+        this.table = table;
+        this.key = key;
+        this.columns = columns;
+        this.chunkRows = Math.max(1, chunkRows);
+        this.parallel = Math.max(1, parallel);
+        this.maxRetries = Math.max(0, maxRetries);
+        this.backoffMillis = Math.max(1, backoffMillis);
+        this.maxBackoffMillis = Math.max(this.backoffMillis, maxBackoffMillis);
+    }
+
+    static KeysetScan fromEnv() {
+        return new KeysetScan(DruidLongQueryExample.envString("SCAN_TABLE", "big_table"),
+                DruidLongQueryExample.envString("SCAN_KEY", "id"), DruidLongQueryExample.envString("SCAN_COLUMNS", "*"),
+                DruidLongQueryExample.envInt("KEYSET_CHUNK_ROWS", 10000),
+                DruidLongQueryExample.envInt("KEYSET_PARALLEL", 1),
+                DruidLongQueryExample.envInt("KEYSET_MAX_RETRIES", 10),
+                DruidLongQueryExample.envLong("KEYSET_BACKOFF_MS", 500),
+                DruidLongQueryExample.envLong("RETRY_BACKOFF_MAX_MS", 30000));
+    }
+
+    /**
+     * 执行分块扫描，KEYSET_COMPARE开启时再执行整表单条查询并输出对比
+     */
+    public void run() throws SQLException, InterruptedException {
+        long[] range = keyRange(DruidLongQueryExample.readerDataSource(), table, key);
+        if (range == null) {
+            DruidLongQueryExample.log("[KEYSET] " + table + " is empty");
+            return;
+        }
+        DruidLongQueryExample.log("[KEYSET] Scanning " + table + " " + key + " " + range[0] + "~" + range[1]
+                + " in chunks of " + chunkRows + " rows, " + parallel + " partition(s)");
+
+        final List<Partition> partitions = split(range[0], range[1]);
+        long startNanos = System.nanoTime();
+        ExecutorService workers = Executors.newFixedThreadPool(partitions.size(), LoadEngine.namedThreads("keyset"));
+        for (final Partition p : partitions) {
+            workers.execute(new Runnable() {
+                @Override
+                public void run() {
+                    scanPartition(p);
+                }
+            });
+        }
+        workers.shutdown();
+        workers.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        long keysetNanos = System.nanoTime() - startNanos;
+
+        long rows = 0;
+        long retries = 0;
+        long reread = 0;
+        boolean complete = true;
+        for (Partition p : partitions) {
+            rows += p.rows;
+            retries += p.retries;
+            reread += p.rowsReread;
+            complete &= p.failure == null;
+        }
+        long[] chunks = sortedChunkNanos();
+
+        DruidLongQueryExample.log("\n========== Keyset Scan Report ==========");
+        DruidLongQueryExample.log("partition | checkpoint           | rows       | chunks | retries | re-read | status");
+        for (Partition p : partitions) {
+            DruidLongQueryExample.log(String.format("%9d | %-20d | %10d | %6d | %7d | %7d | %s", p.index, p.checkpoint,
+                    p.rows, p.chunks, p.retries, p.rowsReread, p.failure == null ? "done" : "FAILED: " + p.failure));
+        }
+        DruidLongQueryExample.log(String.format("Keyset: %d rows in %.1f s, %.0f rows/s, %d chunks (p50 %.1f ms, p99 %.1f ms), "
+                        + "max connection hold %.1f ms, %d retries, %d rows re-read%s", rows, keysetNanos / 1e9,
+                rate(rows, keysetNanos), chunks.length,
+                chunks.length > 0 ? LoadEngine.Report.percentile(chunks, 50) / 1e6 : 0,
+                chunks.length > 0 ? LoadEngine.Report.percentile(chunks, 99) / 1e6 : 0,
+                maxHoldNanos.get() / 1e6, retries, reread, complete ? "" : " (INCOMPLETE)"));
+
+        if (!"false".equalsIgnoreCase(System.getenv("KEYSET_COMPARE"))) {
+            long[] mono = monolithic(range[1]);
+            DruidLongQueryExample.log(String.format("Monolithic: %d rows in %.1f s, %.0f rows/s, connection hold %.1f ms%s",
+                    mono[0], mono[1] / 1e9, rate(mono[0], mono[1]), mono[1] / 1e6, mono[2] != 0 ? " (FAILED)" : ""));
+            if (mono[1] > 0 && keysetNanos > 0) {
+                DruidLongQueryExample.log(String.format("Keyset / monolithic scan time: %.2fx", keysetNanos / (double) mono[1]));
+            }
+        }
+        DruidLongQueryExample.log("========================================");
+    }
+
+    /**
+     * @return {MIN(key), MAX(key)}，空表返回null
+     */
+    static long[] keyRange(DruidDataSource pool, String table, String key) throws SQLException {
+        DruidPooledConnection conn = pool.getConnection();
+        try {
+            Statement stmt = conn.createStatement();
+            try {
+                ResultSet rs = stmt.executeQuery("SELECT MIN(" + key + "), MAX(" + key + ") FROM " + table);
+                rs.next();
+                long min = rs.getLong(1);
+                boolean empty = rs.wasNull();
+                long max = rs.getLong(2);
+                rs.close();
+                return empty ? null : new long[]{min, max};
+            } finally {
+                stmt.close();
+            }
+        } finally {
+            conn.close();
+        }
+    }
+
+    /**
+     * 把 [min, max] 等分为 parallel 个左开右闭区间
+     */
+    private List<Partition> split(long min, long max) {
+        List<Partition> partitions = new ArrayList<Partition>();
+        long low = min - 1;
+        long span = max - low;
+        int n = (int) Math.min(parallel, Math.max(1, span));
+        long from = low;
+        for (int i = 1; i <= n; i++) {
+            long high = i == n ? max : low + span * i / n;
+            partitions.add(new Partition(i, from, high));
+            from = high;
+        }
+        return partitions;
+    }
+
+    /**
+     * 逐块扫描一个分区；每块借出一个连接，成功后推进检查点
+     */
+    private void scanPartition(Partition p) {
+        String sql = "SELECT " + columns + " FROM " + table + " WHERE " + key + " > ? AND " + key + " <= ?"
+                + " ORDER BY " + key + " LIMIT ?";
+        int retry = 0;
+        while (p.checkpoint < p.highKey) {
+            ReaderRouter router = DruidLongQueryExample.readerRouter();
+            ReaderRouter.Endpoint endpoint = router != null ? router.route() : null;
+            DruidDataSource pool = endpoint != null ? endpoint.dataSource : DruidLongQueryExample.readerDataSource();
+            DruidPooledConnection conn = null;
+            PreparedStatement stmt = null;
+            ResultSet rs = null;
+            long startNanos = System.nanoTime();
+            long responseNanos = 0;
+            long read = 0;
+            long sleep = 0;
+            try {
+                conn = pool.getConnection();
+                long borrowedNanos = System.nanoTime();
+                stmt = conn.prepareStatement(sql);
+                stmt.setLong(1, p.checkpoint);
+                stmt.setLong(2, p.highKey);
+                stmt.setInt(3, chunkRows);
+                rs = stmt.executeQuery();
+                responseNanos = System.nanoTime();
+                int keyIndex = rs.findColumn(key);
+                long last = p.checkpoint;
+                while (rs.next()) {
+                    read++;
+                    last = rs.getLong(keyIndex);
+                }
+                long endNanos = System.nanoTime();
+                updateMax(maxHoldNanos, endNanos - borrowedNanos);
+                synchronized (chunkNanos) {
+                    chunkNanos.add(endNanos - startNanos);
+                }
+                if (endpoint != null) router.finished(endpoint, true, responseNanos - startNanos, null);
+
+                // 检查点：本块已完成
+                p.rows += read;
+                p.chunks++;
+                p.checkpoint = read < chunkRows ? p.highKey : last;
+                retry = 0;
+            } catch (SQLException e) {
+                ErrorClassifier.Category category = ErrorClassifier.record(e);
+                if (category.connectionLost) {
+                    DruidLongQueryExample.discardBrokenConnection(pool, conn);
+                }
+                if (endpoint != null) {
+                    router.finished(endpoint, false, responseNanos != 0 ? responseNanos - startNanos : 0, category);
+                }
+                if (!category.retryable || retry >= maxRetries) {
+                    p.failure = category.label + " after " + retry + " retries: " + e.getMessage();
+                    DruidLongQueryExample.log("[KEYSET] partition " + p.index + " failed at " + key + " > " + p.checkpoint
+                            + ": " + p.failure);
+                    return;
+                }
+                retry++;
+                p.retries++;
+                p.rowsReread += read;
+                sleep = ResilientQuery.backoff(backoffMillis, maxBackoffMillis, retry);
+                DruidLongQueryExample.log("[KEYSET] partition " + p.index + " chunk after " + key + " > " + p.checkpoint
+                        + " failed (" + category.label + ", " + read + " rows lost), retry " + retry + "/" + maxRetries
+                        + " in " + sleep + " ms");
+            } finally {
+                try {
+                    if (rs != null) rs.close();
+                    if (stmt != null) stmt.close();
+                } catch (SQLException ignored) {
+                }
+                if (conn != null) {
+                    try {
+                        LightweightValidation.release(conn);
+                    } catch (SQLException ignored) {
+                    }
+                }
+            }
+            if (sleep > 0) {
+                // 连接已归还，退避后从检查点重新执行当前块
+                try {
+                    Thread.sleep(sleep);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    p.failure = "interrupted";
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * 整表单条查询（按FETCH_MODE读取），一个连接占用整个扫描过程
+     * @return {行数, 耗时纳秒, 是否失败}
+     */
+    private long[] monolithic(long maxKey) {
+        DruidPooledConnection conn = null;
+        Statement stmt = null;
+        ResultSet rs = null;
+        long rows = 0;
+        long startNanos = System.nanoTime();
+        try {
+            conn = DruidLongQueryExample.readerDataSource().getConnection();
+            stmt = DruidLongQueryExample.createStatement(conn);
+            rs = stmt.executeQuery("SELECT " + columns + " FROM " + table + " WHERE " + key + " <= " + maxKey
+                    + " ORDER BY " + key);
+            int keyIndex = rs.findColumn(key);
+            while (rs.next()) {
+                rows++;
+                rs.getLong(keyIndex);
+            }
+            return new long[]{rows, System.nanoTime() - startNanos, 0};
+        } catch (SQLException e) {
+            ErrorClassifier.Category category = ErrorClassifier.record(e);
+            DruidLongQueryExample.log("[KEYSET] monolithic scan failed after " + rows + " rows (" + category.label + "): "
+                    + e.getMessage());
+            if (category.connectionLost) {
+                DruidLongQueryExample.discardBrokenConnection(DruidLongQueryExample.readerDataSource(), conn);
+            }
+            return new long[]{rows, System.nanoTime() - startNanos, 1};
+        } finally {
+            try {
+                if (rs != null) rs.close();
+                if (stmt != null) stmt.close();
+            } catch (SQLException ignored) {
+            }
+            if (conn != null) {
+                try {
+                    // 与分块路径相同的归还方式，两种扫描的对比不受归还路径影响
+                    LightweightValidation.release(conn);
+                } catch (SQLException ignored) {
+                }
+            }
+        }
+    }
+
+    private long[] sortedChunkNanos() {
+        long[] result;
+        synchronized (chunkNanos) {
+            result = new long[chunkNanos.size()];
+            for (int i = 0; i < result.length; i++) {
+                result[i] = chunkNanos.get(i);
+            }
+        }
+        Arrays.sort(result);
+        return result;
+    }
+
+    private static void updateMax(AtomicLong max, long value) {
+        long prev = max.get();
+        while (value > prev && !max.compareAndSet(prev, value)) {
+            prev = max.get();
+        }
+    }
+
+    private static double rate(long rows, long nanos) {
+        return nanos > 0 ? rows / (nanos / 1e9) : 0;
+    }
+}
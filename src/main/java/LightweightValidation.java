@@ -0,0 +1,228 @@
+import com.alibaba.druid.pool.DruidDataSource;
+import com.alibaba.druid.pool.DruidPooledConnection;
+import com.alibaba.druid.pool.ValidConnectionChecker;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 轻量级连接校验（VALIDATION_MODE=lightweight）
+ * 替代每次借出都执行 SELECT 1：
+ *   - 校验用 Connection.isValid（Connector/J 下为 COM_PING，不经过SQL解析）
+ *   - 最近 VALIDATION_SKIP_MS（默认5000）毫秒内成功执行过查询或通过校验的连接不再校验
+ *   - 不开启 testOnReturn：成功的查询已经证明连接可用（markAlive），归还时的校验总会落在跳过窗口内；
+ *     连接在调用线程上同步归还，下一次借出不会因归还尚未完成而等待或多建物理连接
+ * validationbench 模式在本地H2上对比借出延迟和死连接检出率
+ */
+public final class LightweightValidation {
+
+    // 物理连接 -> 最近一次确认可用的时间（nanoTime）；超过 PRUNE_SIZE 时清理已关闭的连接
+    private static final ConcurrentHashMap<Connection, Long> lastVerified = new ConcurrentHashMap<Connection, Long>();
+    private static final int PRUNE_SIZE = 1024;
+    private static final AtomicLong pings = new AtomicLong();
+    private static final AtomicLong skipped = new AtomicLong();
+    private static final AtomicLong failed = new AtomicLong();
+
+    private LightweightValidation() {
+    }
+
+    public static boolean isEnabled() {
+        return "lightweight".equalsIgnoreCase(System.getenv("VALIDATION_MODE"));
+    }
+
+    /**
+     * 基于 isValid 的校验器，近期确认可用的连接直接放行
+     */
+    public static class Checker implements ValidConnectionChecker {
+        private final long skipNanos;
+
+        public Checker() {
+            this(DruidLongQueryExample.envLong("VALIDATION_SKIP_MS", 5000));
+        }
+
+        public Checker(long skipMillis) {
+            this.skipNanos = TimeUnit.MILLISECONDS.toNanos(skipMillis);
+        }
+
+        @Override
+        public boolean isValidConnection(Connection conn, String validationQuery, int timeoutSeconds) throws Exception {
+            long now = System.nanoTime();
+            Long last = lastVerified.get(conn);
+            if (last != null && now - last < skipNanos) {
+                skipped.incrementAndGet();
+                return true;
+            }
+            pings.incrementAndGet();
+            boolean ok = conn.isValid(Math.max(0, timeoutSeconds));
+            if (ok) {
+                verified(conn, now);
+            } else {
+                lastVerified.remove(conn);
+                failed.incrementAndGet();
+            }
+            return ok;
+        }
+
+        @Override
+        public void configFromProperties(Properties properties) {
+        }
+    }
+
+    /**
+     * init前调用，替换连接池的校验方式
+     */
+    static void apply(DruidDataSource ds) {
+        apply(ds, DruidLongQueryExample.envLong("VALIDATION_SKIP_MS", 5000));
+    }
+
+    static void apply(DruidDataSource ds, long skipMillis) {
+        ds.setValidConnectionChecker(new Checker(skipMillis));
+        ds.setTestOnBorrow(true);
+        ds.setTestOnReturn(false);
+    }
+
+    private static void verified(Connection conn, long nanos) {
+        lastVerified.put(conn, nanos);
+        if (lastVerified.size() > PRUNE_SIZE) {
+            // 被池销毁的连接不会再经过校验器，在这里顺带清理
+            for (Iterator<Connection> it = lastVerified.keySet().iterator(); it.hasNext(); ) {
+                try {
+                    if (it.next().isClosed()) {
+                        it.remove();
+                    }
+                } catch (SQLException e) {
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * 查询成功结束后调用，连接在跳过窗口内无需再次校验
+     */
+    static void markAlive(DruidPooledConnection conn) {
+        if (isEnabled()) {
+            verified(conn.getConnectionHolder().getConnection(), System.nanoTime());
+        }
+    }
+
+    /**
+     * 归还连接，查询路径统一经由这里归还（同步，不做额外校验）
+     */
+    static void release(DruidPooledConnection conn) throws SQLException {
+        conn.close();
+    }
+
+    /**
+     * 输出校验统计，在关闭连接池之前调用
+     */
+    static void shutdown() {
+        if (isEnabled()) {
+            DruidLongQueryExample.log("Lightweight validation: " + pings.get() + " pings, " + skipped.get()
+                    + " skipped (recently verified), " + failed.get() + " failed");
+        }
+    }
+
+    /**
+     * 对比三种配置的借出延迟与死连接检出率（本地H2 + 故障注入代理，不需要DB_URL）：
+     *   query      当前配置，每次借出执行 SELECT 1
+     *   ping       isValid，每次借出都校验
+     *   ping+skip  isValid，近期使用过的连接跳过校验
+     * 检出率：切断所有空闲连接后依次借出，查询成功（坏连接在借出时被发现并替换）的比例
+     */
+    static void benchmark(int borrows) throws SQLException, InterruptedException {
+        String url = LocalDatabase.start();
+        long skipMillis = DruidLongQueryExample.envLong("VALIDATION_SKIP_MS", 5000);
+        DruidLongQueryExample.log("========== Validation Benchmark ==========");
+        DruidLongQueryExample.log("Borrows per config: " + borrows + ", proxy latency: "
+                + DruidLongQueryExample.envLong("LOCAL_LATENCY_MS", 0) + " ms, skip window: " + skipMillis + " ms");
+        DruidLongQueryExample.log(String.format("%-10s | %10s | %10s | %10s | %s", "config", "p50 us", "p99 us",
+                "max us", "dead connections detected"));
+        benchmarkOne("query", url, -1, borrows);
+        benchmarkOne("ping", url, 0, borrows);
+        benchmarkOne("ping+skip", url, skipMillis, borrows);
+        DruidLongQueryExample.log("==========================================");
+    }
+
+    private static void benchmarkOne(String name, String url, long skipMillis, int borrows)
+            throws SQLException, InterruptedException {
+        final int size = 8;
+        DruidDataSource ds = new DruidDataSource();
+        ds.setName("validation-" + name);
+        ds.setUrl(url);
+        ds.setUsername(LocalDatabase.USERNAME);
+        ds.setPassword(LocalDatabase.PASSWORD);
+        ds.setDriverClassName("org.h2.Driver");
+        ds.setInitialSize(size);
+        ds.setMinIdle(size);
+        ds.setMaxActive(size);
+        ds.setMaxWait(30000);
+        ds.setTestWhileIdle(true);
+        ds.setTestOnBorrow(true);
+        ds.setValidationQuery("SELECT 1");
+        ds.setValidationQueryTimeout(5);
+        if (skipMillis >= 0) {
+            ds.setValidConnectionChecker(new Checker(skipMillis));
+        }
+        ds.init();
+        try {
+            long[] samples = new long[borrows];
+            for (int i = 0; i < borrows; i++) {
+                long t0 = System.nanoTime();
+                DruidPooledConnection conn = ds.getConnection();
+                samples[i] = System.nanoTime() - t0;
+                query(conn);
+                if (skipMillis > 0) {
+                    verified(conn.getConnectionHolder().getConnection(), System.nanoTime());
+                }
+                conn.close();
+            }
+            Arrays.sort(samples);
+
+            // 切断所有连接后借出全部连接，统计能正常查询的比例
+            LocalDatabase.proxy().dropAllConnections();
+            Thread.sleep(100);
+            DruidPooledConnection[] held = new DruidPooledConnection[size];
+            int detected = 0;
+            for (int i = 0; i < size; i++) {
+                held[i] = ds.getConnection();
+                try {
+                    query(held[i]);
+                    detected++;
+                } catch (SQLException e) {
+                    // 借出了已断开的连接
+                }
+            }
+            for (DruidPooledConnection conn : held) {
+                try {
+                    conn.close();
+                } catch (SQLException ignored) {
+                }
+            }
+            DruidLongQueryExample.log(String.format("%-10s | %10.1f | %10.1f | %10.1f | %d/%d", name,
+                    LoadEngine.Report.percentile(samples, 50) / 1e3, LoadEngine.Report.percentile(samples, 99) / 1e3,
+                    samples[samples.length - 1] / 1e3, detected, size));
+        } finally {
+            ds.close();
+        }
+    }
+
+    private static void query(DruidPooledConnection conn) throws SQLException {
+        Statement stmt = conn.createStatement();
+        try {
+            ResultSet rs = stmt.executeQuery("SELECT 1");
+            rs.next();
+            rs.close();
+        } finally {
+            stmt.close();
+        }
+    }
+}
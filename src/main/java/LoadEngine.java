@@ -0,0 +1,316 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 并发长查询负载引擎
+ * 基于ExecutorService运行N个worker，按ramp-up逐步放开并发，
+ * 在达到时长或迭代次数预算后停止，并输出每个worker及汇总的吞吐/延迟
+ */
+public class LoadEngine {
+
+    /**
+     * 单次负载任务，返回true表示成功
+     */
+    public interface Task {
+        boolean run(int workerId, long iteration) throws Exception;
+    }
+
+    // Ctrl+C后等待在途查询结束、报告输出的最长时间
+    private static final long STOP_GRACE_SECONDS = 10;
+
+    private final int workers;              // 线程池大小
+    private final int targetConcurrency;    // ramp-up完成后的并发数
+    private final long rampUpMillis;        // 从0爬升到targetConcurrency的时间
+    private final long durationMillis;      // 总时长，0表示不限
+    private final long iterationBudget;     // 总迭代次数，0表示不限
+    private final long thinkTimeMillis;     // 每次迭代后的等待
+
+    private final Semaphore concurrencyGate = new Semaphore(0);
+    private final AtomicLong issued = new AtomicLong();
+    private volatile boolean stopped;
+
+    public LoadEngine(int workers, int targetConcurrency, long rampUpMillis,
+                      long durationMillis, long iterationBudget, long thinkTimeMillis) {
+        if (workers <= 0) {
+            throw new IllegalArgumentException("workers must be > 0");
+        }
+        if (durationMillis <= 0 && iterationBudget <= 0) {
+            throw new IllegalArgumentException("either duration or iteration budget must be set");
+        }
+        this.workers = workers;
+        this.targetConcurrency = Math.max(1, Math.min(targetConcurrency, workers));
+        this.rampUpMillis = Math.max(0, rampUpMillis);
+        this.durationMillis = durationMillis;
+        this.iterationBudget = iterationBudget;
+        this.thinkTimeMillis = Math.max(0, thinkTimeMillis);
+    }
+
+    /**
+     * 运行负载并在结束后打印报告
+     */
+    public Report run(final Task task) throws InterruptedException {
+        final WorkerStats[] stats = new WorkerStats[workers];
+        for (int i = 0; i < workers; i++) {
+            stats[i] = new WorkerStats(i + 1);
+        }
+
+        // Ctrl+C时停止领取新任务，并等待报告输出后再退出
+        final CountDownLatch finished = new CountDownLatch(1);
+        Thread stopHook = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                stop();
+                try {
+                    finished.await(STOP_GRACE_SECONDS, TimeUnit.SECONDS);
+                } catch (InterruptedException ignored) {
+                }
+            }
+        }, "load-engine-stop");
+        Runtime.getRuntime().addShutdownHook(stopHook);
+        try {
+            return runWorkers(task, stats);
+        } finally {
+            finished.countDown();
+            try {
+                Runtime.getRuntime().removeShutdownHook(stopHook);
+            } catch (IllegalStateException ignored) {
+                // 已经在关闭过程中
+            }
+        }
+    }
+
+    private Report runWorkers(final Task task, final WorkerStats[] stats) throws InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool(workers, workerThreads("load-worker"));
+        final long startNanos = System.nanoTime();
+        final long deadline = durationMillis > 0 ? startNanos + TimeUnit.MILLISECONDS.toNanos(durationMillis) : Long.MAX_VALUE;
+
+        for (int i = 0; i < workers; i++) {
+            final WorkerStats ws = stats[i];
+            pool.execute(new Runnable() {
+                @Override
+                public void run() {
+                    workerLoop(ws, task, deadline);
+                }
+            });
+        }
+
+        rampUp(deadline);
+
+        pool.shutdown();
+        while (!pool.awaitTermination(1, TimeUnit.SECONDS)) {
+            if (System.nanoTime() >= deadline) {
+                // 时长到了，通知worker停止领取新任务；正在执行的查询自然结束
+                stopped = true;
+                concurrencyGate.release(workers);
+            }
+        }
+        long elapsedNanos = System.nanoTime() - startNanos;
+
+        Report report = new Report(stats, elapsedNanos);
+        report.print();
+        return report;
+    }
+
+    /**
+     * 外部停止：worker不再领取新任务，正在执行的查询自然结束（run期间由Ctrl+C钩子调用）
+     */
+    public void stop() {
+        stopped = true;
+        concurrencyGate.release(workers);
+    }
+
+    private void rampUp(long deadline) throws InterruptedException {
+        long stepMillis = targetConcurrency > 1 ? rampUpMillis / targetConcurrency : 0;
+        for (int i = 1; i <= targetConcurrency && !stopped; i++) {
+            concurrencyGate.release();
+            DruidLongQueryExample.log("Ramp-up: concurrency " + i + "/" + targetConcurrency);
+            if (i < targetConcurrency && stepMillis > 0) {
+                long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                Thread.sleep(Math.max(0, Math.min(stepMillis, remaining)));
+            }
+        }
+    }
+
+    private void workerLoop(WorkerStats ws, Task task, long deadline) {
+        while (!stopped && System.nanoTime() < deadline) {
+            try {
+                concurrencyGate.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            try {
+                if (stopped || System.nanoTime() >= deadline) {
+                    return;
+                }
+                long iteration = issued.incrementAndGet();
+                if (iterationBudget > 0 && iteration > iterationBudget) {
+                    stopped = true;
+                    return;
+                }
+
+                long t0 = System.nanoTime();
+                boolean ok;
+                try {
+                    ok = task.run(ws.workerId, iteration);
+                } catch (Exception e) {
+                    DruidLongQueryExample.log("Worker " + ws.workerId + " iteration " + iteration + " ★★★ Exception: " + e.getMessage() + " ★★★", e);
+                    ok = false;
+                }
+                ws.record(System.nanoTime() - t0, ok);
+            } finally {
+                concurrencyGate.release();
+            }
+
+            if (thinkTimeMillis > 0) {
+                try {
+                    Thread.sleep(thinkTimeMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * 执行查询的worker线程：LOAD_THREADS=virtual 时为虚拟线程，否则为平台线程
+     * 虚拟线程实现在 src/java21/java，需要 mvn package -Pjava21 构建并在JDK 21+上运行
+     */
+    static ThreadFactory workerThreads(String prefix) {
+        if (!"virtual".equalsIgnoreCase(System.getenv("LOAD_THREADS"))) {
+            return namedThreads(prefix);
+        }
+        try {
+            return (ThreadFactory) Class.forName("VirtualThreadFactory").getConstructor(String.class).newInstance(prefix);
+        } catch (ReflectiveOperationException | LinkageError e) {
+            throw new IllegalStateException("LOAD_THREADS=virtual requires a -Pjava21 build running on JDK 21+ (" + e + ")", e);
+        }
+    }
+
+    static boolean virtualWorkers() {
+        return "virtual".equalsIgnoreCase(System.getenv("LOAD_THREADS"));
+    }
+
+    static ThreadFactory namedThreads(final String prefix) {
+        final AtomicInteger seq = new AtomicInteger();
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, prefix + "-" + seq.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        };
+    }
+
+    /**
+     * 单个worker的统计，只由所属worker线程写入
+     */
+    static class WorkerStats {
+        final int workerId;
+        long ops;
+        long failures;
+        long totalNanos;
+        long minNanos = Long.MAX_VALUE;
+        long maxNanos;
+        long[] samples = new long[64];
+
+        WorkerStats(int workerId) {
+            this.workerId = workerId;
+        }
+
+        void record(long nanos, boolean ok) {
+            if (samples.length == ops) {
+                samples = Arrays.copyOf(samples, samples.length * 2);
+            }
+            samples[(int) ops] = nanos;
+            ops++;
+            if (!ok) failures++;
+            totalNanos += nanos;
+            if (nanos < minNanos) minNanos = nanos;
+            if (nanos > maxNanos) maxNanos = nanos;
+        }
+    }
+
+    /**
+     * 负载结束后的汇总报告
+     */
+    public static class Report {
+        private final WorkerStats[] stats;
+        private final long elapsedNanos;
+
+        Report(WorkerStats[] stats, long elapsedNanos) {
+            this.stats = stats;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public long totalOps() {
+            long n = 0;
+            for (WorkerStats ws : stats) n += ws.ops;
+            return n;
+        }
+
+        public long totalFailures() {
+            long n = 0;
+            for (WorkerStats ws : stats) n += ws.failures;
+            return n;
+        }
+
+        public double throughput() {
+            return elapsedNanos > 0 ? totalOps() / (elapsedNanos / 1e9) : 0;
+        }
+
+        void print() {
+            double elapsedSec = elapsedNanos / 1e9;
+            DruidLongQueryExample.log("\n========== Load Engine Report ==========");
+            DruidLongQueryExample.log(String.format("Elapsed: %.1f s, workers: %d", elapsedSec, stats.length));
+            DruidLongQueryExample.log("Worker | ops | failures | ops/s | avg ms | min ms | max ms");
+            List<long[]> all = new ArrayList<long[]>();
+            int total = 0;
+            for (WorkerStats ws : stats) {
+                if (ws.ops == 0) {
+                    DruidLongQueryExample.log(String.format("%6d | 0", ws.workerId));
+                    continue;
+                }
+                DruidLongQueryExample.log(String.format("%6d | %d | %d | %.3f | %.1f | %.1f | %.1f",
+                        ws.workerId, ws.ops, ws.failures, ws.ops / elapsedSec,
+                        ws.totalNanos / (double) ws.ops / 1e6, ws.minNanos / 1e6, ws.maxNanos / 1e6));
+                all.add(Arrays.copyOf(ws.samples, (int) ws.ops));
+                total += (int) ws.ops;
+            }
+
+            long[] merged = new long[total];
+            int pos = 0;
+            for (long[] s : all) {
+                System.arraycopy(s, 0, merged, pos, s.length);
+                pos += s.length;
+            }
+            Arrays.sort(merged);
+
+            DruidLongQueryExample.log("---------- Aggregate ----------");
+            DruidLongQueryExample.log("Total ops: " + totalOps() + ", failures: " + totalFailures());
+            DruidLongQueryExample.log(String.format("Throughput: %.3f ops/s", throughput()));
+            if (merged.length > 0) {
+                DruidLongQueryExample.log(String.format("Latency ms: p50=%.1f p90=%.1f p99=%.1f max=%.1f",
+                        percentile(merged, 50) / 1e6, percentile(merged, 90) / 1e6,
+                        percentile(merged, 99) / 1e6, merged[merged.length - 1] / 1e6));
+            }
+            DruidLongQueryExample.log("========================================");
+        }
+
+        static long percentile(long[] sorted, double p) {
+            int idx = (int) Math.ceil(p / 100.0 * sorted.length) - 1;
+            return sorted[Math.max(0, Math.min(idx, sorted.length - 1))];
+        }
+    }
+}
@@ -0,0 +1,189 @@
+import org.h2.tools.Server;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 本地H2数据库（MySQL兼容模式），用于离线运行各测试场景
+ * 启动H2 TCP服务并生成big_table，连接池通过 FaultInjectingProxy 连接，
+ * 可以注入响应延迟和查询中断连
+ *
+ * 环境变量：
+ *   LOCAL_DB=true               启用本地模式（替代DB_URL）
+ *   LOCAL_ROWS                  big_table行数（默认100000）
+ *   LOCAL_PAYLOAD_BYTES         每行payload列长度（默认100）
+ *   LOCAL_LATENCY_MS            每次转发服务端响应前增加的延迟（默认0）
+ *   LOCAL_DROP_AFTER_MS         查询等待响应超过该时间即切断连接（默认0，不启用）
+ *   LOCAL_DROP_EVERY_SEC        每隔N秒切断所有执行中的连接（默认0，不启用）
+ *   LOCAL_READERS               模拟的Reader数量（默认1），每个Reader一个独立代理，故障只注入第一个
+ */
+public final class LocalDatabase {
+
+    static final String USERNAME = "sa";
+    static final String PASSWORD = "";
+    private static final String DB_NAME = "mem:druid_long_query";
+    private static final String URL_OPTIONS = ";MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1";
+
+    private static Server server;
+    private static FaultInjectingProxy proxy;
+    private static int proxyPort;
+    private static final List<FaultInjectingProxy> readerProxies = new ArrayList<FaultInjectingProxy>();
+    private static ScheduledExecutorService faultScheduler;
+
+    private LocalDatabase() {
+    }
+
+    public static boolean isEnabled() {
+        return "true".equalsIgnoreCase(System.getenv("LOCAL_DB"));
+    }
+
+    /**
+     * 启动本地数据库并返回经过故障注入代理的JDBC URL
+     */
+    public static synchronized String start() throws SQLException {
+        if (proxy != null) {
+            return proxyUrl(proxyPort);
+        }
+        // jar-with-dependencies合并META-INF/services时只保留了Druid的驱动声明，需显式注册H2驱动
+        org.h2.Driver.load();
+        server = Server.createTcpServer("-tcpPort", "0", "-ifNotExists").start();
+        String directUrl = "jdbc:h2:tcp://localhost:" + server.getPort() + "/" + DB_NAME + URL_OPTIONS;
+        DruidLongQueryExample.log("Local H2 server started on port " + server.getPort());
+
+        Connection conn = DriverManager.getConnection(directUrl, USERNAME, PASSWORD);
+        try {
+            initSchema(conn, DruidLongQueryExample.envLong("LOCAL_ROWS", 100000),
+                    DruidLongQueryExample.envInt("LOCAL_PAYLOAD_BYTES", 100));
+        } finally {
+            conn.close();
+        }
+
+        try {
+            proxy = new FaultInjectingProxy("localhost", server.getPort());
+            proxyPort = proxy.start();
+            proxy.setLatencyMillis(DruidLongQueryExample.envLong("LOCAL_LATENCY_MS", 0));
+            DruidLongQueryExample.log("Fault injection proxy listening on port " + proxyPort
+                    + ", latency " + DruidLongQueryExample.envLong("LOCAL_LATENCY_MS", 0) + " ms");
+        } catch (java.io.IOException e) {
+            throw new SQLException("Failed to start fault injection proxy", e);
+        }
+        startFaultSchedule();
+        return proxyUrl(proxyPort);
+    }
+
+    public static synchronized void stop() {
+        if (faultScheduler != null) {
+            faultScheduler.shutdownNow();
+            faultScheduler = null;
+        }
+        for (FaultInjectingProxy p : readerProxies) {
+            p.stop();
+        }
+        readerProxies.clear();
+        if (proxy != null) {
+            proxy.stop();
+            proxy = null;
+        }
+        if (server != null) {
+            server.stop();
+            server = null;
+            DruidLongQueryExample.log("Local H2 server stopped");
+        }
+    }
+
+    /**
+     * 模拟另一个Reader实例：指向同一个H2服务的独立代理（不注入故障），返回其JDBC URL
+     */
+    public static synchronized String openReaderProxy() throws SQLException {
+        start();
+        try {
+            FaultInjectingProxy p = new FaultInjectingProxy("localhost", server.getPort());
+            int port = p.start();
+            p.setLatencyMillis(DruidLongQueryExample.envLong("LOCAL_LATENCY_MS", 0));
+            readerProxies.add(p);
+            DruidLongQueryExample.log("Local reader proxy #" + (readerProxies.size() + 1) + " listening on port " + port);
+            return proxyUrl(port);
+        } catch (java.io.IOException e) {
+            throw new SQLException("Failed to start reader proxy", e);
+        }
+    }
+
+    /**
+     * 故障注入代理，未启动时返回null
+     */
+    public static synchronized FaultInjectingProxy proxy() {
+        return proxy;
+    }
+
+    /**
+     * 供H2调用的 SLEEP(seconds) 实现，返回值与MySQL一致
+     */
+    public static int sleep(int seconds) throws InterruptedException {
+        Thread.sleep(seconds * 1000L);
+        return 0;
+    }
+
+    private static String proxyUrl(int port) {
+        return "jdbc:h2:tcp://localhost:" + port + "/" + DB_NAME + URL_OPTIONS;
+    }
+
+    private static void initSchema(Connection conn, long rows, int payloadBytes) throws SQLException {
+        Statement stmt = conn.createStatement();
+        try {
+            stmt.execute("CREATE ALIAS IF NOT EXISTS SLEEP FOR 'LocalDatabase.sleep'");
+            stmt.execute("DROP TABLE IF EXISTS big_table");
+            stmt.execute(String.format(BigTableGenerator.CREATE_TABLE_SQL, Math.max(1, payloadBytes)));
+
+            long start = System.currentTimeMillis();
+            // SYSTEM_RANGE在服务端直接生成数据，比逐行插入快几个数量级
+            stmt.execute("INSERT INTO big_table " +
+                    "SELECT \"X\", CONCAT('name-', \"X\"), MOD(\"X\" * 37, 100000) / 100.0, " +
+                    "DATEADD('SECOND', -\"X\", CURRENT_TIMESTAMP), REPEAT('x', " + Math.max(1, payloadBytes) + ") " +
+                    "FROM SYSTEM_RANGE(1, " + rows + ")");
+            DruidLongQueryExample.log("Local big_table loaded: " + rows + " rows in "
+                    + (System.currentTimeMillis() - start) + " ms");
+        } finally {
+            stmt.close();
+        }
+    }
+
+    private static void startFaultSchedule() {
+        final long dropAfterMillis = DruidLongQueryExample.envLong("LOCAL_DROP_AFTER_MS", 0);
+        final long dropEverySec = DruidLongQueryExample.envLong("LOCAL_DROP_EVERY_SEC", 0);
+        if (dropAfterMillis <= 0 && dropEverySec <= 0) {
+            return;
+        }
+        faultScheduler = Executors.newSingleThreadScheduledExecutor(LoadEngine.namedThreads("fault-injector"));
+        if (dropAfterMillis > 0) {
+            faultScheduler.scheduleAtFixedRate(new Runnable() {
+                @Override
+                public void run() {
+                    int n = proxy.dropBusyConnections(dropAfterMillis);
+                    if (n > 0) {
+                        DruidLongQueryExample.log("*** Fault injected: dropped " + n + " connection(s) busy for more than " + dropAfterMillis + " ms ***");
+                    }
+                }
+            }, 100, 100, TimeUnit.MILLISECONDS);
+            DruidLongQueryExample.log("Fault injection: drop queries running longer than " + dropAfterMillis + " ms");
+        }
+        if (dropEverySec > 0) {
+            faultScheduler.scheduleAtFixedRate(new Runnable() {
+                @Override
+                public void run() {
+                    int n = proxy.dropBusyConnections(0);
+                    if (n > 0) {
+                        DruidLongQueryExample.log("*** Fault injected: periodic drop of " + n + " in-flight connection(s) ***");
+                    }
+                }
+            }, dropEverySec, dropEverySec, TimeUnit.SECONDS);
+            DruidLongQueryExample.log("Fault injection: drop in-flight connections every " + dropEverySec + " s");
+        }
+    }
+}
@@ -0,0 +1,326 @@
+import com.alibaba.druid.pool.DruidDataSource;
+import com.alibaba.druid.stat.JdbcSqlStat;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.HdrHistogram.Histogram;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanNotificationInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 运行时指标导出
+ * 每次读取时从各Reader连接池、Druid StatFilter的 JdbcSqlStat、PhaseLatency 和 ErrorClassifier 现场采集，
+ * 同一份数据通过两种方式暴露：
+ *   JMX      MBean druidlongquery:type=Metrics，每个指标一个只读属性（METRICS_JMX=true）
+ *   HTTP     http://host:METRICS_PORT/metrics，Prometheus文本格式（METRICS_PORT > 0）
+ * 长时间运行时由本机Prometheus抓取，不再需要从日志里提取
+ *
+ * 环境变量：
+ *   METRICS_PORT         HTTP端口（默认0，不启用）
+ *   METRICS_JMX          是否注册MBean（默认false）
+ *   METRICS_SQL_MAX_LEN  sql标签的最大长度（默认200）
+ */
+public class MetricsExporter {
+
+    static final String OBJECT_NAME = "druidlongquery:type=Metrics";
+
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    /**
+     * 一个指标族：同名、同类型的一组样本
+     */
+    static class Family {
+        final String name;
+        final String type;
+        final String help;
+        final List<String> keys = new ArrayList<String>();      // 样本名 + 标签，如 druid_pool_active{pool="reader-1"}
+        final List<Double> values = new ArrayList<Double>();
+
+        Family(String name, String type, String help) {
+            this.name = name;
+            this.type = type;
+            this.help = help;
+        }
+
+        void add(String sampleName, String labels, double value) {
+            keys.add(labels.isEmpty() ? sampleName : sampleName + "{" + labels + "}");
+            values.add(value);
+        }
+
+        void add(String labels, double value) {
+            add(name, labels, value);
+        }
+    }
+
+    private final int port;
+    private final boolean jmx;
+    private final int sqlMaxLength;
+    private HttpServer server;
+    private ExecutorService httpExecutor;
+    private ObjectName objectName;
+
+    public MetricsExporter(int port, boolean jmx, int sqlMaxLength) {
+        this.port = port;
+        this.jmx = jmx;
+        this.sqlMaxLength = sqlMaxLength;
+    }
+
+    /**
+     * 按环境变量创建，两种导出方式都未启用时返回null
+     */
+    static MetricsExporter fromEnv() {
+        int port = DruidLongQueryExample.envInt("METRICS_PORT", 0);
+        boolean jmx = "true".equalsIgnoreCase(System.getenv("METRICS_JMX"));
+        if (port <= 0 && !jmx) {
+            return null;
+        }
+        return new MetricsExporter(port, jmx, DruidLongQueryExample.envInt("METRICS_SQL_MAX_LEN", 200));
+    }
+
+    public void start() throws IOException, JMException {
+        if (jmx) {
+            objectName = new ObjectName(OBJECT_NAME);
+            MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+            if (mbs.isRegistered(objectName)) {
+                mbs.unregisterMBean(objectName);
+            }
+            mbs.registerMBean(new MetricsMBean(), objectName);
+            DruidLongQueryExample.log("[METRICS] JMX MBean registered as " + OBJECT_NAME);
+        }
+        if (port > 0) {
+            server = HttpServer.create(new InetSocketAddress(port), 0);
+            server.createContext("/metrics", new HttpHandler() {
+                @Override
+                public void handle(HttpExchange exchange) throws IOException {
+                    byte[] body = prometheusText().getBytes(StandardCharsets.UTF_8);
+                    exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+                    exchange.sendResponseHeaders(200, body.length);
+                    OutputStream out = exchange.getResponseBody();
+                    try {
+                        out.write(body);
+                    } finally {
+                        out.close();
+                    }
+                }
+            });
+            httpExecutor = Executors.newSingleThreadExecutor(LoadEngine.namedThreads("metrics-http"));
+            server.setExecutor(httpExecutor);
+            server.start();
+            DruidLongQueryExample.log("[METRICS] Prometheus endpoint http://0.0.0.0:" + port + "/metrics");
+        }
+    }
+
+    public void stop() {
+        if (server != null) {
+            server.stop(0);
+            httpExecutor.shutdownNow();
+            server = null;
+        }
+        if (objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            } catch (JMException ignored) {
+            }
+            objectName = null;
+        }
+    }
+
+    /**
+     * 采集当前全部指标，按指标族分组
+     */
+    List<Family> collect() {
+        Map<String, Family> families = new LinkedHashMap<String, Family>();
+        for (DruidDataSource pool : DruidLongQueryExample.readerDataSources()) {
+            collectPool(families, pool);
+        }
+        collectLatency(families);
+        Family errors = family(families, "druid_query_errors_total", "counter", "SQL errors by ErrorClassifier category");
+        for (ErrorClassifier.Category c : ErrorClassifier.Category.values()) {
+            errors.add("category=\"" + c.name().toLowerCase() + "\"", ErrorClassifier.count(c));
+        }
+        return new ArrayList<Family>(families.values());
+    }
+
+    private void collectPool(Map<String, Family> families, DruidDataSource pool) {
+        String labels = "pool=\"" + escape(pool.getName()) + "\"";
+        family(families, "druid_pool_active", "gauge", "Connections borrowed from the pool").add(labels, pool.getActiveCount());
+        family(families, "druid_pool_idle", "gauge", "Idle connections in the pool").add(labels, pool.getPoolingCount());
+        family(families, "druid_pool_wait_threads", "gauge", "Threads waiting for a connection").add(labels, pool.getWaitThreadCount());
+        family(families, "druid_pool_max_active", "gauge", "Configured maxActive").add(labels, pool.getMaxActive());
+        family(families, "druid_pool_min_idle", "gauge", "Configured minIdle").add(labels, pool.getMinIdle());
+        family(families, "druid_pool_connect_total", "counter", "Connections borrowed").add(labels, pool.getConnectCount());
+        family(families, "druid_pool_close_total", "counter", "Connections returned").add(labels, pool.getCloseCount());
+        family(families, "druid_pool_create_total", "counter", "Physical connections created").add(labels, pool.getCreateCount());
+        family(families, "druid_pool_destroy_total", "counter", "Physical connections destroyed").add(labels, pool.getDestroyCount());
+        family(families, "druid_pool_discard_total", "counter", "Connections discarded as broken").add(labels, pool.getDiscardCount());
+        family(families, "druid_pool_error_total", "counter", "Pool errors").add(labels, pool.getErrorCount());
+        family(families, "druid_pool_wait_total", "counter", "Borrows that had to wait for a connection").add(labels, pool.getNotEmptyWaitCount());
+        family(families, "druid_pool_wait_seconds_total", "counter", "Time spent waiting for a connection").add(labels, pool.getNotEmptyWaitNanos() / 1e9);
+
+        if (pool.getDataSourceStat() == null) {
+            return;
+        }
+        Family executions = family(families, "druid_sql_executions_total", "counter", "Executions per merged SQL (StatFilter)");
+        Family sqlErrors = family(families, "druid_sql_errors_total", "counter", "Failed executions per merged SQL");
+        Family seconds = family(families, "druid_sql_execute_seconds_total", "counter", "Execution time per merged SQL");
+        Family maxSeconds = family(families, "druid_sql_execute_max_seconds", "gauge", "Slowest execution per merged SQL");
+        Family fetchRows = family(families, "druid_sql_fetch_rows_total", "counter", "Rows fetched per merged SQL");
+        Family running = family(families, "druid_sql_running", "gauge", "Executions in flight per merged SQL");
+        Family concurrentMax = family(families, "druid_sql_concurrent_max", "gauge", "Peak concurrent executions per merged SQL");
+        for (JdbcSqlStat stat : pool.getDataSourceStat().getSqlStatMap().values()) {
+            String sqlLabels = labels + ",sql=\"" + escape(shorten(stat.getSql())) + "\"";
+            executions.add(sqlLabels, stat.getExecuteCount());
+            sqlErrors.add(sqlLabels, stat.getErrorCount());
+            seconds.add(sqlLabels, stat.getExecuteMillisTotal() / 1e3);
+            maxSeconds.add(sqlLabels, stat.getExecuteMillisMax() / 1e3);
+            fetchRows.add(sqlLabels, stat.getFetchRowCount());
+            running.add(sqlLabels, stat.getRunningCount());
+            concurrentMax.add(sqlLabels, stat.getConcurrentMax());
+        }
+    }
+
+    private void collectLatency(Map<String, Family> families) {
+        Family latency = family(families, "druid_query_phase_seconds", "summary", "Long query latency by phase");
+        Histogram[] totals = PhaseLatency.snapshot();
+        for (PhaseLatency.Phase phase : PhaseLatency.Phase.values()) {
+            Histogram h = totals[phase.ordinal()];
+            String labels = "phase=\"" + phase.tag + "\"";
+            for (double q : QUANTILES) {
+                latency.add(labels + ",quantile=\"" + q + "\"", h.getTotalCount() > 0 ? h.getValueAtPercentile(q * 100) / 1e9 : Double.NaN);
+            }
+            latency.add(latency.name + "_sum", labels, h.getTotalCount() > 0 ? h.getMean() * h.getTotalCount() / 1e9 : 0);
+            latency.add(latency.name + "_count", labels, h.getTotalCount());
+        }
+    }
+
+    private static Family family(Map<String, Family> families, String name, String type, String help) {
+        Family family = families.get(name);
+        if (family == null) {
+            family = new Family(name, type, help);
+            families.put(name, family);
+        }
+        return family;
+    }
+
+    /**
+     * Prometheus文本格式（0.0.4）
+     */
+    String prometheusText() {
+        StringBuilder out = new StringBuilder(8192);
+        for (Family family : collect()) {
+            if (family.keys.isEmpty()) {
+                continue;
+            }
+            out.append("# HELP ").append(family.name).append(' ').append(family.help).append('\n');
+            out.append("# TYPE ").append(family.name).append(' ').append(family.type).append('\n');
+            for (int i = 0; i < family.keys.size(); i++) {
+                out.append(family.keys.get(i)).append(' ').append(format(family.values.get(i))).append('\n');
+            }
+        }
+        return out.toString();
+    }
+
+    private static String format(double value) {
+        if (Double.isNaN(value)) return "NaN";
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) return String.valueOf((long) value);
+        return String.valueOf(value);
+    }
+
+    /**
+     * 合并空白并截断，避免超长SQL撑大标签
+     */
+    private String shorten(String sql) {
+        String s = sql.replaceAll("\\s+", " ").trim();
+        return s.length() > sqlMaxLength ? s.substring(0, sqlMaxLength) + "..." : s;
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    /**
+     * 把 collect() 的样本作为只读属性暴露，属性名即Prometheus样本名（含标签）
+     */
+    private class MetricsMBean implements DynamicMBean {
+
+        private Map<String, Double> values() {
+            Map<String, Double> result = new LinkedHashMap<String, Double>();
+            for (Family family : collect()) {
+                for (int i = 0; i < family.keys.size(); i++) {
+                    result.put(family.keys.get(i), family.values.get(i));
+                }
+            }
+            return result;
+        }
+
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            Double value = values().get(attribute);
+            if (value == null) {
+                throw new AttributeNotFoundException(attribute);
+            }
+            return value;
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] attributes) {
+            Map<String, Double> values = values();
+            AttributeList list = new AttributeList();
+            for (String name : attributes) {
+                Double value = values.get(name);
+                if (value != null) {
+                    list.add(new Attribute(name, value));
+                }
+            }
+            return list;
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException("read-only: " + attribute.getName());
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String actionName, Object[] params, String[] signature) {
+            throw new UnsupportedOperationException(actionName);
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            List<MBeanAttributeInfo> attributes = new ArrayList<MBeanAttributeInfo>();
+            for (Family family : collect()) {
+                for (String key : family.keys) {
+                    attributes.add(new MBeanAttributeInfo(key, Double.class.getName(), family.help + " (" + family.type + ")", true, false, false));
+                }
+            }
+            return new MBeanInfo(MetricsExporter.class.getName(), "druid-long-query runtime metrics",
+                    attributes.toArray(new MBeanAttributeInfo[0]), null, new MBeanOperationInfo[0], new MBeanNotificationInfo[0]);
+        }
+    }
+}
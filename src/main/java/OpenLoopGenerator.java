@@ -0,0 +1,178 @@
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 开环（open-loop）定速查询发生器
+ * 按固定目标速率安排查询的计划开始时间，与前一个查询是否完成无关；
+ * 同时记录计划开始时间与实际开始时间，用 (结束 - 计划开始) 作为响应时间，
+ * 避免闭环循环在查询卡住时停止发压而掩盖延迟（coordinated omission）；
+ * 排空超时时仍未完成的查询按 (超时时刻 - 计划开始) 作为下限计入响应时间，并单独计数
+ */
+public class OpenLoopGenerator {
+
+    private static final long HIGHEST_TRACKABLE_NANOS = TimeUnit.HOURS.toNanos(2);
+
+    private final double ratePerSecond;
+    private final long durationMillis;
+    private final int maxInFlight;
+
+    // 响应时间：结束 - 计划开始（已校正）
+    private final Recorder responseTime = new Recorder(HIGHEST_TRACKABLE_NANOS, 3);
+    // 服务时间：结束 - 实际开始（闭环工具通常只看到这个）
+    private final Recorder serviceTime = new Recorder(HIGHEST_TRACKABLE_NANOS, 3);
+    // 开始延迟：实际开始 - 计划开始（等待空闲worker的时间）
+    private final Recorder startLag = new Recorder(HIGHEST_TRACKABLE_NANOS, 3);
+
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong inFlight = new AtomicLong();
+    private final AtomicLong unfinished = new AtomicLong();
+    // 已安排但尚未记录的查询：序号 -> 计划开始时间；记录前先移除，保证每个查询只记录一次
+    private final Map<Long, Long> pending = new ConcurrentHashMap<Long, Long>();
+
+    /**
+     * @param ratePerSecond  目标速率（每秒开始的查询数）
+     * @param durationMillis 发压时长
+     * @param maxInFlight    同时执行的最大查询数，超出的查询排队，排队时间计入响应时间
+     */
+    public OpenLoopGenerator(double ratePerSecond, long durationMillis, int maxInFlight) {
+        if (ratePerSecond <= 0) {
+            throw new IllegalArgumentException("rate must be > 0");
+        }
+        this.ratePerSecond = ratePerSecond;
+        this.durationMillis = durationMillis;
+        this.maxInFlight = Math.max(1, maxInFlight);
+    }
+
+    /**
+     * 按计划速率发起查询，发压结束后最多等待 drainTimeoutMillis 让在途查询完成
+     */
+    public void run(final LoadEngine.Task task, long drainTimeoutMillis) throws InterruptedException {
+        final long intervalNanos = (long) (1e9 / ratePerSecond);
+        final long startNanos = System.nanoTime();
+        final long endNanos = startNanos + TimeUnit.MILLISECONDS.toNanos(durationMillis);
+        final long progressNanos = TimeUnit.SECONDS.toNanos(10);
+        long nextProgress = startNanos + progressNanos;
+
+        DruidLongQueryExample.log("========== Open-loop Mode ==========");
+        DruidLongQueryExample.log(String.format("Target rate: %.2f queries/s, duration: %d s, max in-flight: %d",
+                ratePerSecond, durationMillis / 1000, maxInFlight));
+
+        ExecutorService workers = Executors.newFixedThreadPool(maxInFlight, LoadEngine.workerThreads("open-loop"));
+        long scheduled = 0;
+        while (true) {
+            final long intended = startNanos + scheduled * intervalNanos;
+            if (intended >= endNanos) {
+                break;
+            }
+            long wait = intended - System.nanoTime();
+            while (wait > 0) {
+                LockSupport.parkNanos(wait);
+                wait = intended - System.nanoTime();
+            }
+            final long seq = ++scheduled;
+            pending.put(seq, intended);
+            workers.execute(new Runnable() {
+                @Override
+                public void run() {
+                    execute(task, seq, intended);
+                }
+            });
+            if (intended >= nextProgress) {
+                nextProgress += progressNanos;
+                DruidLongQueryExample.log("Open-loop progress: scheduled " + seq + ", completed " + completed.get()
+                        + ", in-flight " + inFlight.get());
+            }
+        }
+        long issueEndNanos = System.nanoTime();
+
+        workers.shutdown();
+        if (!workers.awaitTermination(drainTimeoutMillis, TimeUnit.MILLISECONDS)) {
+            DruidLongQueryExample.log("Open-loop drain timeout, " + inFlight.get() + " queries still running, "
+                    + pending.size() + " not finished");
+            workers.shutdownNow();
+            recordUnfinished(System.nanoTime());
+        }
+
+        report(scheduled, (issueEndNanos - startNanos) / 1e9, (System.nanoTime() - startNanos) / 1e9);
+    }
+
+    private void execute(LoadEngine.Task task, long seq, long intendedNanos) {
+        long actual = System.nanoTime();
+        inFlight.incrementAndGet();
+        boolean ok;
+        try {
+            ok = task.run(0, seq);
+        } catch (Exception e) {
+            DruidLongQueryExample.log("Open-loop query " + seq + " ★★★ Exception: " + e.getMessage() + " ★★★");
+            ok = false;
+        }
+        long end = System.nanoTime();
+        inFlight.decrementAndGet();
+        if (pending.remove(seq) == null) {
+            // 排空超时时已按下限记录
+            return;
+        }
+
+        responseTime.recordValue(clamp(end - intendedNanos));
+        serviceTime.recordValue(clamp(end - actual));
+        startLag.recordValue(clamp(actual - intendedNanos));
+        completed.incrementAndGet();
+        if (!ok) failed.incrementAndGet();
+    }
+
+    /**
+     * 排空超时后，把排队中和执行中的查询按 (now - 计划开始) 计入响应时间（真实值只会更大）
+     */
+    private void recordUnfinished(long now) {
+        for (Long seq : pending.keySet()) {
+            Long intended = pending.remove(seq);
+            if (intended != null) {
+                responseTime.recordValue(clamp(now - intended));
+                unfinished.incrementAndGet();
+            }
+        }
+    }
+
+    private void report(long scheduled, double issueSec, double totalSec) {
+        Histogram response = responseTime.getIntervalHistogram();
+        Histogram service = serviceTime.getIntervalHistogram();
+        Histogram lag = startLag.getIntervalHistogram();
+
+        DruidLongQueryExample.log("\n========== Open-loop Report ==========");
+        DruidLongQueryExample.log(String.format("Scheduled: %d in %.1f s (%.2f/s achieved issue rate), completed: %d, failed: %d",
+                scheduled, issueSec, scheduled / issueSec, completed.get(), failed.get()));
+        DruidLongQueryExample.log(String.format("Throughput: %.2f completed/s over %.1f s", completed.get() / totalSec, totalSec));
+        if (unfinished.get() > 0) {
+            DruidLongQueryExample.log("Unfinished at drain timeout: " + unfinished.get()
+                    + " (included in response as lower bound: drain timeout - intended start)");
+        }
+        DruidLongQueryExample.log(String.format("%-28s %9s %9s %9s %9s %9s", "latency (ms)", "p50", "p90", "p99", "p99.9", "max"));
+        line("response (corrected)", response);
+        line("service (uncorrected)", service);
+        line("start lag", lag);
+        DruidLongQueryExample.log("======================================");
+    }
+
+    private static void line(String name, Histogram h) {
+        if (h.getTotalCount() == 0) {
+            DruidLongQueryExample.log(String.format("%-28s %9s", name, "-"));
+            return;
+        }
+        DruidLongQueryExample.log(String.format("%-28s %9.1f %9.1f %9.1f %9.1f %9.1f", name,
+                h.getValueAtPercentile(50) / 1e6, h.getValueAtPercentile(90) / 1e6,
+                h.getValueAtPercentile(99) / 1e6, h.getValueAtPercentile(99.9) / 1e6, h.getMaxValue() / 1e6));
+    }
+
+    private static long clamp(long nanos) {
+        return Math.max(0, Math.min(nanos, HIGHEST_TRACKABLE_NANOS));
+    }
+}
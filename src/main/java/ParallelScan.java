@@ -0,0 +1,328 @@
+import com.alibaba.druid.pool.DruidDataSource;
+import com.alibaba.druid.pool.DruidPooledConnection;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * 按主键范围分区的并行扫描（parallel模式）
+ * 把 [MIN(key), MAX(key)] 递归二分为N个分区，每个分区由ForkJoin任务在独立的 DruidPooledConnection 上
+ * 执行一条 ORDER BY key 的范围查询（按FETCH_MODE读取，查询期间以ManagedBlocker阻塞），子任务结果按键值顺序合并：
+ *   count  行数
+ *   sum    行数 + PARALLEL_SUM_COLUMN（默认为主键）之和
+ *   rows   各分区流式写入临时文件，合并时按分区顺序拼接到 PARALLEL_OUTPUT（默认 parallel-scan.csv）
+ * PARALLEL_PARTITIONS 为逗号分隔的分区数列表（默认 1,2,4,8,16），依次执行并输出吞吐对比，
+ * 再增加分区吞吐提升不足10%时，此前吞吐最高的分区数视为Reader饱和点
+ */
+public class ParallelScan {
+
+    /**
+     * 一个或多个相邻分区的合并结果，键值区间为 (lowKey, highKey]
+     */
+    static class Result {
+        final long lowKey;
+        final long highKey;
+        long rows;
+        long sum;
+        long firstKey = Long.MIN_VALUE;
+        long lastKey = Long.MIN_VALUE;
+        int failures;
+        long maxPartitionNanos;
+        final List<File> parts = new ArrayList<File>();
+
+        Result(long lowKey, long highKey) {
+            this.lowKey = lowKey;
+            this.highKey = highKey;
+        }
+
+        /**
+         * 按键值顺序合并：left 在前，right 在后
+         */
+        static Result merge(Result left, Result right) {
+            if (left.rows > 0 && right.rows > 0 && left.lastKey >= right.firstKey) {
+                throw new IllegalStateException("partitions out of order: " + left.lastKey + " >= " + right.firstKey);
+            }
+            Result r = new Result(left.lowKey, right.highKey);
+            r.rows = left.rows + right.rows;
+            r.sum = left.sum + right.sum;
+            r.firstKey = left.rows > 0 ? left.firstKey : right.firstKey;
+            r.lastKey = right.rows > 0 ? right.lastKey : left.lastKey;
+            r.failures = left.failures + right.failures;
+            r.maxPartitionNanos = Math.max(left.maxPartitionNanos, right.maxPartitionNanos);
+            r.parts.addAll(left.parts);
+            r.parts.addAll(right.parts);
+            return r;
+        }
+    }
+
+    /**
+     * 区间 (lowKey, highKey] 上 partitions 个分区的扫描任务，多于一个分区时二分后fork
+     */
+    @SuppressWarnings("serial")
+    private class ScanTask extends RecursiveTask<Result> {
+        private final long lowKey;
+        private final long highKey;
+        private final int partitions;
+
+        ScanTask(long lowKey, long highKey, int partitions) {
+            this.lowKey = lowKey;
+            this.highKey = highKey;
+            this.partitions = partitions;
+        }
+
+        @Override
+        protected Result compute() {
+            if (partitions <= 1 || highKey - lowKey <= 1) {
+                return scanBlocking(lowKey, highKey);
+            }
+            int leftPartitions = partitions / 2;
+            long mid = lowKey + (highKey - lowKey) * leftPartitions / partitions;
+            ScanTask left = new ScanTask(lowKey, mid, leftPartitions);
+            ScanTask right = new ScanTask(mid, highKey, partitions - leftPartitions);
+            left.fork();
+            Result rightResult = right.compute();
+            return Result.merge(left.join(), rightResult);
+        }
+    }
+
+    /**
+     * 叶子分区的JDBC查询会长时间阻塞，通过ManagedBlocker告知ForkJoinPool，
+     * 阻塞期间池会补充线程，保证N个分区真正同时执行而不被等待join的worker拖住
+     */
+    private Result scanBlocking(final long lowKey, final long highKey) {
+        final Result[] result = new Result[1];
+        try {
+            ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
+                @Override
+                public boolean block() {
+                    result[0] = scan(lowKey, highKey);
+                    return true;
+                }
+
+                @Override
+                public boolean isReleasable() {
+                    return result[0] != null;
+                }
+            });
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (result[0] == null) {
+            Result interrupted = new Result(lowKey, highKey);
+            interrupted.failures++;
+            return interrupted;
+        }
+        return result[0];
+    }
+
+    private final String table;
+    private final String key;
+    private final String columns;
+    private final String aggregate;
+    private final String sumColumn;
+    private final String outputPath;
+
+    public ParallelScan(String table, String key, String columns, String aggregate, String sumColumn, String outputPath) {
+        this.table = table;
+        this.key = key;
+        this.columns = columns;
+        this.aggregate = aggregate;
+        this.sumColumn = sumColumn;
+        this.outputPath = outputPath;
+    }
+
+    static ParallelScan fromEnv() {
+        String key = DruidLongQueryExample.envString("SCAN_KEY", "id");
+        return new ParallelScan(DruidLongQueryExample.envString("SCAN_TABLE", "big_table"), key,
+                DruidLongQueryExample.envString("SCAN_COLUMNS", "*"),
+                DruidLongQueryExample.envString("PARALLEL_AGGREGATE", "count").toLowerCase(),
+                DruidLongQueryExample.envString("PARALLEL_SUM_COLUMN", key),
+                DruidLongQueryExample.envString("PARALLEL_OUTPUT", "parallel-scan.csv"));
+    }
+
+    /**
+     * 依次按 PARALLEL_PARTITIONS 中的每个分区数扫描，输出吞吐对比和饱和点
+     */
+    public void run() throws SQLException, IOException {
+        DruidDataSource pool = DruidLongQueryExample.readerDataSource();
+        long[] range = KeysetScan.keyRange(pool, table, key);
+        if (range == null) {
+            DruidLongQueryExample.log("[PARALLEL] " + table + " is empty");
+            return;
+        }
+        List<Integer> counts = new ArrayList<Integer>();
+        for (String s : DruidLongQueryExample.envString("PARALLEL_PARTITIONS", "1,2,4,8,16").split(",")) {
+            if (!s.trim().isEmpty()) counts.add(Math.max(1, Integer.parseInt(s.trim())));
+        }
+        DruidLongQueryExample.log("[PARALLEL] Scanning " + table + " " + key + " " + range[0] + "~" + range[1]
+                + ", aggregate " + aggregate + ", partitions " + counts);
+
+        List<String> lines = new ArrayList<String>();
+        double baseline = 0;
+        double best = 0;
+        int bestCount = 0;
+        int saturation = 0;
+        final int maxActive = pool.getMaxActive();
+        for (int n : counts) {
+            if (maxActive < n) {
+                // 每个分区需要一个连接，连接池不够时分区会排队，测不出Reader的并行能力；本轮结束后恢复
+                DruidLongQueryExample.log("[PARALLEL] maxActive " + maxActive + " -> " + n);
+                pool.setMaxActive(n);
+            }
+            ForkJoinPool forkJoin = new ForkJoinPool(n);
+            long startNanos = System.nanoTime();
+            Result result;
+            try {
+                result = forkJoin.invoke(new ScanTask(range[0] - 1, range[1], n));
+            } finally {
+                forkJoin.shutdown();
+                if (pool.getMaxActive() != maxActive) {
+                    pool.setMaxActive(maxActive);
+                }
+            }
+            long nanos = System.nanoTime() - startNanos;
+            if ("rows".equals(aggregate)) {
+                writeOutput(result);
+            }
+            double rate = nanos > 0 ? result.rows / (nanos / 1e9) : 0;
+            if (baseline == 0) baseline = rate;
+            if (saturation == 0 && best > 0 && rate < best * 1.1) saturation = bestCount;
+            if (rate > best) {
+                best = rate;
+                bestCount = n;
+            }
+            lines.add(String.format("%10d | %10d | %8.2f | %10.0f | %7.2fx | %10.1f | %s%s", n, result.rows, nanos / 1e9, rate,
+                    baseline > 0 ? rate / baseline : 0, result.maxPartitionNanos / 1e6,
+                    "sum".equals(aggregate) ? "sum=" + result.sum : "",
+                    result.failures > 0 ? " FAILED partitions: " + result.failures : ""));
+        }
+
+        DruidLongQueryExample.log("\n========== Parallel Scan Report ==========");
+        DruidLongQueryExample.log("partitions | rows       | seconds  | rows/s     | speedup | slowest ms | result");
+        for (String line : lines) {
+            DruidLongQueryExample.log(line);
+        }
+        if (saturation > 0) {
+            DruidLongQueryExample.log("Reader saturates at about " + saturation + " partitions (more partitions gain < 10%)");
+        } else {
+            DruidLongQueryExample.log("No saturation observed up to " + counts.get(counts.size() - 1) + " partitions");
+        }
+        if ("rows".equals(aggregate)) {
+            DruidLongQueryExample.log("Rows of the last run written in key order to " + outputPath);
+        }
+        DruidLongQueryExample.log("==========================================");
+    }
+
+    /**
+     * 在独立连接上扫描一个分区
+     */
+    private Result scan(long lowKey, long highKey) {
+        Result result = new Result(lowKey, highKey);
+        DruidDataSource pool = DruidLongQueryExample.readerDataSource();
+        DruidPooledConnection conn = null;
+        Statement stmt = null;
+        ResultSet rs = null;
+        Writer out = null;
+        long startNanos = System.nanoTime();
+        try {
+            conn = pool.getConnection();
+            stmt = DruidLongQueryExample.createStatement(conn);
+            rs = stmt.executeQuery("SELECT " + columns + " FROM " + table + " WHERE " + key + " > " + lowKey
+                    + " AND " + key + " <= " + highKey + " ORDER BY " + key);
+            int columnCount = rs.getMetaData().getColumnCount();
+            int keyIndex = rs.findColumn(key);
+            int sumIndex = "sum".equals(aggregate) ? rs.findColumn(sumColumn) : 0;
+            if ("rows".equals(aggregate)) {
+                File part = File.createTempFile("parallel-scan-", ".part");
+                part.deleteOnExit();
+                result.parts.add(part);
+                out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(part), StandardCharsets.UTF_8));
+            }
+            while (rs.next()) {
+                long k = rs.getLong(keyIndex);
+                if (result.rows == 0) result.firstKey = k;
+                result.lastKey = k;
+                result.rows++;
+                if (sumIndex > 0) {
+                    result.sum += rs.getLong(sumIndex);
+                }
+                if (out != null) {
+                    for (int i = 1; i <= columnCount; i++) {
+                        if (i > 1) out.write(',');
+                        String v = rs.getString(i);
+                        if (v != null) out.write(v);
+                    }
+                    out.write('\n');
+                }
+            }
+        } catch (SQLException e) {
+            ErrorClassifier.Category category = ErrorClassifier.record(e);
+            DruidLongQueryExample.log("[PARALLEL] partition " + key + " (" + lowKey + ", " + highKey + "] failed after "
+                    + result.rows + " rows (" + category.label + "): " + e.getMessage());
+            if (category.connectionLost) {
+                DruidLongQueryExample.discardBrokenConnection(pool, conn);
+            }
+            result.failures++;
+        } catch (IOException e) {
+            DruidLongQueryExample.log("[PARALLEL] partition output failed: " + e.getMessage());
+            result.failures++;
+        } finally {
+            try {
+                if (out != null) out.close();
+            } catch (IOException ignored) {
+            }
+            try {
+                if (rs != null) rs.close();
+                if (stmt != null) stmt.close();
+            } catch (SQLException ignored) {
+            }
+            if (conn != null) {
+                try {
+                    LightweightValidation.release(conn);
+                } catch (SQLException ignored) {
+                }
+            }
+        }
+        result.maxPartitionNanos = System.nanoTime() - startNanos;
+        return result;
+    }
+
+    /**
+     * 按分区顺序拼接各分区的临时文件
+     */
+    private void writeOutput(Result result) throws IOException {
+        OutputStream out = new FileOutputStream(outputPath);
+        try {
+            byte[] buffer = new byte[64 * 1024];
+            for (File part : result.parts) {
+                InputStream in = new FileInputStream(part);
+                try {
+                    int n;
+                    while ((n = in.read(buffer)) > 0) {
+                        out.write(buffer, 0, n);
+                    }
+                } finally {
+                    in.close();
+                }
+                part.delete();
+            }
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,127 @@
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.HistogramLogWriter;
+import org.HdrHistogram.Recorder;
+
+import java.io.FileNotFoundException;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 长查询分阶段延迟统计（纳秒精度）
+ * 每个阶段一个HdrHistogram Recorder，记录为无锁写入，可被所有worker线程同时调用；
+ * 运行结束时输出百分位表并写出HDR日志文件（每个阶段一个带tag的直方图）
+ */
+public final class PhaseLatency {
+
+    public enum Phase {
+        ACQUIRE("acquire"),         // dataSource.getConnection()
+        FIRST_ROW("firstRow"),      // executeQuery 到第一行
+        DRAIN("drain"),             // 第一行到结果集读完
+        CLOSE("close");             // 关闭 ResultSet/Statement/归还连接
+
+        final String tag;
+
+        Phase(String tag) {
+            this.tag = tag;
+        }
+    }
+
+    private static final long HIGHEST_TRACKABLE_NANOS = TimeUnit.HOURS.toNanos(2);
+    private static final int SIGNIFICANT_DIGITS = 3;
+
+    private static final Recorder[] RECORDERS = new Recorder[Phase.values().length];
+    private static final Histogram[] TOTALS = new Histogram[Phase.values().length];
+    private static final long START_MILLIS = System.currentTimeMillis();
+
+    static {
+        for (int i = 0; i < RECORDERS.length; i++) {
+            RECORDERS[i] = new Recorder(HIGHEST_TRACKABLE_NANOS, SIGNIFICANT_DIGITS);
+            TOTALS[i] = new Histogram(HIGHEST_TRACKABLE_NANOS, SIGNIFICANT_DIGITS);
+        }
+    }
+
+    private PhaseLatency() {
+    }
+
+    /**
+     * 记录一个阶段的耗时
+     */
+    public static void record(Phase phase, long nanos) {
+        RECORDERS[phase.ordinal()].recordValue(Math.max(0, Math.min(nanos, HIGHEST_TRACKABLE_NANOS)));
+    }
+
+    /**
+     * 取出自上次调用以来的记录并累加到总直方图，返回各阶段累计直方图的副本
+     */
+    static synchronized Histogram[] snapshot() {
+        Histogram[] result = new Histogram[TOTALS.length];
+        for (int i = 0; i < TOTALS.length; i++) {
+            TOTALS[i].add(RECORDERS[i].getIntervalHistogram());
+            result[i] = TOTALS[i].copy();
+        }
+        return result;
+    }
+
+    /**
+     * 输出百分位表，并在hdrLogPath非空时写出HDR日志
+     */
+    public static void report(String hdrLogPath) {
+        Histogram[] totals = snapshot();
+        long total = 0;
+        for (Histogram h : totals) total += h.getTotalCount();
+        if (total == 0) {
+            return;
+        }
+
+        DruidLongQueryExample.log("\n========== Phase Latency (ms) ==========");
+        DruidLongQueryExample.log(String.format("%-9s %8s %9s %9s %9s %9s %9s %9s %9s",
+                "phase", "count", "min", "p50", "p90", "p99", "p99.9", "max", "mean"));
+        for (Phase phase : Phase.values()) {
+            Histogram h = totals[phase.ordinal()];
+            if (h.getTotalCount() == 0) {
+                DruidLongQueryExample.log(String.format("%-9s %8d", phase.tag, 0));
+                continue;
+            }
+            DruidLongQueryExample.log(String.format("%-9s %8d %9.3f %9.3f %9.3f %9.3f %9.3f %9.3f %9.3f",
+                    phase.tag, h.getTotalCount(), ms(h.getMinValue()),
+                    ms(h.getValueAtPercentile(50)), ms(h.getValueAtPercentile(90)),
+                    ms(h.getValueAtPercentile(99)), ms(h.getValueAtPercentile(99.9)),
+                    ms(h.getMaxValue()), h.getMean() / 1e6));
+        }
+        DruidLongQueryExample.log("========================================");
+
+        if (hdrLogPath != null && !hdrLogPath.trim().isEmpty()) {
+            writeLog(hdrLogPath.trim(), totals);
+        }
+    }
+
+    private static void writeLog(String path, Histogram[] totals) {
+        PrintStream out = null;
+        try {
+            out = new PrintStream(path);
+            HistogramLogWriter writer = new HistogramLogWriter(out);
+            writer.outputComment("druid-long-query phase latency, values in nanoseconds");
+            writer.outputLogFormatVersion();
+            writer.outputStartTime(START_MILLIS);
+            writer.setBaseTime(START_MILLIS);
+            writer.outputLegend();
+            long now = System.currentTimeMillis();
+            for (Phase phase : Phase.values()) {
+                Histogram h = totals[phase.ordinal()];
+                h.setStartTimeStamp(START_MILLIS);
+                h.setEndTimeStamp(now);
+                h.setTag(phase.tag);
+                writer.outputIntervalHistogram(h);
+            }
+            DruidLongQueryExample.log("HDR latency log written to " + path);
+        } catch (FileNotFoundException e) {
+            DruidLongQueryExample.log("Failed to write HDR latency log: " + e.getMessage());
+        } finally {
+            if (out != null) out.close();
+        }
+    }
+
+    private static double ms(long nanos) {
+        return nanos / 1e6;
+    }
+}
@@ -0,0 +1,198 @@
+import com.alibaba.druid.pool.DruidDataSource;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 连接池指标定时采样器
+ * 按固定间隔把Druid连接池计数器写入预分配的环形时间序列，
+ * 每个窗口输出一次各指标的 min/max/p50/p99，结束时可导出CSV用于和DDL时间点对照
+ */
+public class PoolSampler {
+
+    static final String[] METRIC_NAMES = {
+            "active",           // 活跃连接数
+            "idle",             // 池中空闲连接数
+            "waitThreads",      // 等待获取连接的线程数
+            "created",          // 本区间新建连接数
+            "destroyed",        // 本区间销毁连接数
+            "errors",           // 本区间连接错误数
+            "waits",            // 本区间发生等待的获取次数（notEmptyWaitCount增量）
+            "avgWaitMicros"     // 本区间平均等待时间（notEmptyWaitNanos增量 / waits）
+    };
+    private static final int METRICS = METRIC_NAMES.length;
+
+    private final DruidDataSource dataSource;
+    private final long intervalMillis;
+    private final int windowSamples;
+
+    private final long[] times;
+    private final long[][] series;
+    private final long[] scratch;
+    private long sampleCount;
+    private long windowStart;
+
+    private long lastCreate;
+    private long lastDestroy;
+    private long lastError;
+    private long lastWaitCount;
+    private long lastWaitNanos;
+
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * @param intervalMillis 采样间隔
+     * @param windowSamples  每多少个采样输出一次窗口统计
+     * @param capacity       时间序列容量，超过后覆盖最早的数据
+     */
+    public PoolSampler(DruidDataSource dataSource, long intervalMillis, int windowSamples, int capacity) {
+        this.dataSource = dataSource;
+        this.intervalMillis = intervalMillis;
+        this.windowSamples = Math.max(1, windowSamples);
+        this.times = new long[capacity];
+        this.series = new long[METRICS][capacity];
+        this.scratch = new long[Math.min(this.windowSamples, capacity)];
+    }
+
+    public synchronized void start() {
+        if (scheduler != null) {
+            return;
+        }
+        lastCreate = dataSource.getCreateCount();
+        lastDestroy = dataSource.getDestroyCount();
+        lastError = dataSource.getErrorCount();
+        lastWaitCount = dataSource.getNotEmptyWaitCount();
+        lastWaitNanos = dataSource.getNotEmptyWaitNanos();
+        scheduler = Executors.newSingleThreadScheduledExecutor(LoadEngine.namedThreads("pool-sampler"));
+        scheduler.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    sample();
+                } catch (Throwable t) {
+                    DruidLongQueryExample.log("Pool sampler error: " + t);
+                }
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        DruidLongQueryExample.log("Pool sampler started, interval " + intervalMillis + " ms, window " + windowSamples + " samples");
+    }
+
+    public boolean isRunning() {
+        return scheduler != null;
+    }
+
+    /**
+     * 停止采样并输出最后一个不完整窗口
+     */
+    public void stop() {
+        ScheduledExecutorService s;
+        synchronized (this) {
+            s = scheduler;
+            scheduler = null;
+        }
+        if (s == null) {
+            return;
+        }
+        s.shutdown();
+        try {
+            s.awaitTermination(intervalMillis + 1000, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            if (sampleCount > windowStart) {
+                emitWindow();
+            }
+        }
+    }
+
+    synchronized void sample() {
+        long create = dataSource.getCreateCount();
+        long destroy = dataSource.getDestroyCount();
+        long error = dataSource.getErrorCount();
+        long waitCount = dataSource.getNotEmptyWaitCount();
+        long waitNanos = dataSource.getNotEmptyWaitNanos();
+
+        int slot = (int) (sampleCount % times.length);
+        times[slot] = System.currentTimeMillis();
+        series[0][slot] = dataSource.getActiveCount();
+        series[1][slot] = dataSource.getPoolingCount();
+        series[2][slot] = dataSource.getWaitThreadCount();
+        series[3][slot] = create - lastCreate;
+        series[4][slot] = destroy - lastDestroy;
+        series[5][slot] = error - lastError;
+        series[6][slot] = waitCount - lastWaitCount;
+        series[7][slot] = series[6][slot] > 0 ? (waitNanos - lastWaitNanos) / series[6][slot] / 1000 : 0;
+
+        lastCreate = create;
+        lastDestroy = destroy;
+        lastError = error;
+        lastWaitCount = waitCount;
+        lastWaitNanos = waitNanos;
+        sampleCount++;
+
+        if (sampleCount - windowStart >= windowSamples) {
+            emitWindow();
+        }
+    }
+
+    private void emitWindow() {
+        long from = Math.max(windowStart, sampleCount - times.length);
+        int n = (int) Math.min(sampleCount - from, scratch.length);
+        from = sampleCount - n;
+        long firstTime = times[(int) (from % times.length)];
+        long lastTime = times[(int) ((sampleCount - 1) % times.length)];
+
+        DruidLongQueryExample.log("----- Pool window " + DruidLongQueryExample.formatTime(firstTime)
+                + " ~ " + DruidLongQueryExample.formatTime(lastTime) + " (" + n + " samples) -----");
+        DruidLongQueryExample.log(String.format("%-14s %8s %8s %8s %8s", "metric", "min", "max", "p50", "p99"));
+        for (int m = 0; m < METRICS; m++) {
+            for (int i = 0; i < n; i++) {
+                scratch[i] = series[m][(int) ((from + i) % times.length)];
+            }
+            Arrays.sort(scratch, 0, n);
+            DruidLongQueryExample.log(String.format("%-14s %8d %8d %8d %8d", METRIC_NAMES[m],
+                    scratch[0], scratch[n - 1], scratch[rank(n, 50)], scratch[rank(n, 99)]));
+        }
+        windowStart = sampleCount;
+    }
+
+    private static int rank(int n, double p) {
+        return Math.max(0, Math.min(n - 1, (int) Math.ceil(p / 100.0 * n) - 1));
+    }
+
+    /**
+     * 把环形缓冲区中保留的全部采样导出为CSV
+     */
+    public synchronized void writeCsv(String path) {
+        PrintWriter w = null;
+        try {
+            w = new PrintWriter(new FileWriter(path));
+            StringBuilder header = new StringBuilder("time,epochMillis");
+            for (String name : METRIC_NAMES) {
+                header.append(',').append(name);
+            }
+            w.println(header);
+            long from = Math.max(0, sampleCount - times.length);
+            for (long i = from; i < sampleCount; i++) {
+                int slot = (int) (i % times.length);
+                StringBuilder row = new StringBuilder();
+                row.append(DruidLongQueryExample.formatTime(times[slot])).append(',').append(times[slot]);
+                for (int m = 0; m < METRICS; m++) {
+                    row.append(',').append(series[m][slot]);
+                }
+                w.println(row);
+            }
+            DruidLongQueryExample.log("Pool samples written to " + path + " (" + (sampleCount - from) + " rows)");
+        } catch (IOException e) {
+            DruidLongQueryExample.log("Failed to write pool samples: " + e.getMessage());
+        } finally {
+            if (w != null) w.close();
+        }
+    }
+}
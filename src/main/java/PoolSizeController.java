@@ -0,0 +1,176 @@
+import com.alibaba.druid.pool.DruidDataSource;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 自适应连接池大小控制器
+ * 每秒采样等待线程数和活跃连接数，每个决策周期根据等待线程数和平均取连接等待时间
+ * 在上下限内调整 maxActive / minIdle：
+ *   有线程排队或平均等待超过目标值 -> maxActive 增加 max(步长, 排队线程数)
+ *   连续若干周期无排队且活跃连接峰值不到 maxActive 一半 -> maxActive 减少一个步长
+ *   minIdle 跟随上一周期的活跃连接峰值
+ * 每次调整都会输出日志，结束时输出按时间加权的平均池大小，便于与静态配置对比吞吐
+ */
+public class PoolSizeController {
+
+    private final DruidDataSource dataSource;
+    private final String name;
+    private final int lowerBound;
+    private final int upperBound;
+    private final int minIdleFloor;
+    private final int step;
+    private final long targetWaitNanos;
+    private final int samplesPerDecision;
+    private final int shrinkAfter;
+
+    private ScheduledExecutorService scheduler;
+    private int samples;
+    private int peakActive;
+    private int peakWaitThreads;
+    private int quietDecisions;
+    private long lastConnectCount;
+    private long lastWaitNanos;
+
+    private long startNanos;
+    private long lastChangeNanos;
+    private double weightedSize;
+    private int grows;
+    private int shrinks;
+
+    /**
+     * @param lowerBound         maxActive下限
+     * @param upperBound         maxActive上限
+     * @param minIdleFloor       minIdle下限
+     * @param step               每次调整的连接数
+     * @param targetWaitMillis   平均取连接等待时间目标值
+     * @param decisionSeconds    决策周期（秒）
+     * @param shrinkAfter        连续多少个空闲周期后缩小
+     */
+    public PoolSizeController(DruidDataSource dataSource, int lowerBound, int upperBound, int minIdleFloor, int step,
+                              long targetWaitMillis, int decisionSeconds, int shrinkAfter) {
+        this.dataSource = dataSource;
+        this.name = dataSource.getName();
+        this.lowerBound = Math.max(1, lowerBound);
+        this.upperBound = Math.max(this.lowerBound, upperBound);
+        this.minIdleFloor = Math.max(0, Math.min(minIdleFloor, this.lowerBound));
+        this.step = Math.max(1, step);
+        this.targetWaitNanos = TimeUnit.MILLISECONDS.toNanos(targetWaitMillis);
+        this.samplesPerDecision = Math.max(1, decisionSeconds);
+        this.shrinkAfter = Math.max(1, shrinkAfter);
+    }
+
+    public synchronized void start() {
+        if (scheduler != null) {
+            return;
+        }
+        int current = dataSource.getMaxActive();
+        if (current < lowerBound || current > upperBound) {
+            resize(Math.max(lowerBound, Math.min(upperBound, current)), dataSource.getMinIdle(), "initial bounds");
+        }
+        lastConnectCount = dataSource.getConnectCount();
+        lastWaitNanos = dataSource.getNotEmptyWaitNanos();
+        startNanos = System.nanoTime();
+        lastChangeNanos = startNanos;
+        scheduler = Executors.newSingleThreadScheduledExecutor(LoadEngine.namedThreads("pool-controller"));
+        scheduler.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    tick();
+                } catch (Throwable t) {
+                    DruidLongQueryExample.log("[ADAPTIVE] " + name + " controller error: " + t);
+                }
+            }
+        }, 1, 1, TimeUnit.SECONDS);
+        DruidLongQueryExample.log("[ADAPTIVE] " + name + " controller started: maxActive " + lowerBound + "~" + upperBound
+                + ", step " + step + ", target wait " + targetWaitNanos / 1000000 + " ms, decision every "
+                + samplesPerDecision + " s");
+    }
+
+    private synchronized void tick() {
+        peakActive = Math.max(peakActive, dataSource.getActiveCount());
+        peakWaitThreads = Math.max(peakWaitThreads, dataSource.getWaitThreadCount());
+        if (++samples < samplesPerDecision) {
+            return;
+        }
+
+        long connectCount = dataSource.getConnectCount();
+        long waitNanos = dataSource.getNotEmptyWaitNanos();
+        long acquires = connectCount - lastConnectCount;
+        long avgWaitNanos = acquires > 0 ? (waitNanos - lastWaitNanos) / acquires : 0;
+        lastConnectCount = connectCount;
+        lastWaitNanos = waitNanos;
+
+        int max = dataSource.getMaxActive();
+        String reason = String.format("wait threads %d, avg acquire wait %.1f ms, peak active %d",
+                peakWaitThreads, avgWaitNanos / 1e6, peakActive);
+        if ((peakWaitThreads > 0 || avgWaitNanos > targetWaitNanos) && max < upperBound) {
+            quietDecisions = 0;
+            int newMax = Math.min(upperBound, max + Math.max(step, peakWaitThreads));
+            resize(newMax, Math.max(minIdleFloor, Math.min(newMax, peakActive)), reason);
+            grows++;
+        } else if (peakWaitThreads == 0 && peakActive * 2 < max) {
+            if (++quietDecisions >= shrinkAfter && max > lowerBound) {
+                quietDecisions = 0;
+                int newMax = Math.max(lowerBound, Math.max(peakActive + step, max - step));
+                if (newMax < max) {
+                    resize(newMax, Math.max(minIdleFloor, Math.min(newMax, peakActive)), reason);
+                    shrinks++;
+                }
+            }
+        } else {
+            quietDecisions = 0;
+        }
+
+        samples = 0;
+        peakActive = 0;
+        peakWaitThreads = 0;
+    }
+
+    /**
+     * 调整池大小：扩大时先调maxActive，缩小时先调minIdle，保证任何时刻 minIdle <= maxActive
+     */
+    private void resize(int newMax, int newMinIdle, String reason) {
+        int oldMax = dataSource.getMaxActive();
+        int oldMinIdle = dataSource.getMinIdle();
+        long now = System.nanoTime();
+        if (startNanos != 0) {
+            weightedSize += oldMax * (double) (now - lastChangeNanos);
+            lastChangeNanos = now;
+        }
+        if (newMax >= oldMax) {
+            dataSource.setMaxActive(newMax);
+            dataSource.setMinIdle(newMinIdle);
+        } else {
+            dataSource.setMinIdle(Math.min(newMinIdle, newMax));
+            dataSource.setMaxActive(newMax);
+        }
+        DruidLongQueryExample.log("[ADAPTIVE] " + name + " maxActive " + oldMax + " -> " + dataSource.getMaxActive()
+                + ", minIdle " + oldMinIdle + " -> " + dataSource.getMinIdle() + " (" + reason + ")");
+    }
+
+    /**
+     * 停止控制器并输出调整次数和时间加权平均池大小
+     */
+    public void stop() {
+        ScheduledExecutorService s;
+        synchronized (this) {
+            s = scheduler;
+            scheduler = null;
+        }
+        if (s == null) {
+            return;
+        }
+        s.shutdownNow();
+        synchronized (this) {
+            long now = System.nanoTime();
+            double total = weightedSize + dataSource.getMaxActive() * (double) (now - lastChangeNanos);
+            double elapsed = now - startNanos;
+            DruidLongQueryExample.log(String.format("[ADAPTIVE] %s summary: %d grows, %d shrinks, final maxActive %d / minIdle %d, "
+                            + "time-weighted avg maxActive %.1f over %.0f s", name, grows, shrinks,
+                    dataSource.getMaxActive(), dataSource.getMinIdle(), elapsed > 0 ? total / elapsed : 0, elapsed / 1e9));
+        }
+    }
+}
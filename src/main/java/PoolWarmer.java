@@ -0,0 +1,174 @@
+import com.alibaba.druid.pool.DruidDataSource;
+import com.alibaba.druid.pool.DruidPooledConnection;
+import com.alibaba.druid.proxy.jdbc.ConnectionProxy;
+
+import java.lang.management.ManagementFactory;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 连接池预热
+ * init前：用Druid的createScheduler + asyncInit并行创建initialSize个物理连接，
+ *        connectionInitSqls在每个新连接上设置会话变量；
+ * init后：同时借出initialSize个连接（保证每个物理连接都被覆盖），各执行一次预热查询，
+ *        让借出校验、会话初始化、表元数据和驱动代码路径在第一个真实查询之前完成。
+ *        预热查询直接在物理连接上执行，不经过filter，不计入StatFilter的SQL统计和连接生命周期统计。
+ * 无论是否预热，第一个成功查询的取连接/首行时间都会输出，便于对比冷启动与预热后的差异
+ *
+ * 环境变量：
+ *   WARMUP=true           启用预热
+ *   WARMUP_SESSION_SQL    分号分隔的会话初始化语句（如 SET SESSION net_write_timeout=600）
+ *   WARMUP_SQL            每个连接上执行的预热查询（默认 SELECT * FROM big_table WHERE 1 = 0）
+ *   WARMUP_TIMEOUT_SEC    等待预热完成的最长时间（默认60）
+ */
+public final class PoolWarmer {
+
+    private static final AtomicBoolean firstQueryReported = new AtomicBoolean();
+    private static final List<ScheduledExecutorService> createSchedulers = new ArrayList<ScheduledExecutorService>();
+
+    private PoolWarmer() {
+    }
+
+    public static boolean isEnabled() {
+        return "true".equalsIgnoreCase(System.getenv("WARMUP"));
+    }
+
+    /**
+     * init前调用：并行创建初始连接并设置会话初始化语句
+     */
+    static void prepare(DruidDataSource ds) {
+        int n = Math.max(1, ds.getInitialSize());
+        ScheduledExecutorService createScheduler = Executors.newScheduledThreadPool(n, LoadEngine.namedThreads("pool-create"));
+        synchronized (createSchedulers) {
+            createSchedulers.add(createScheduler);
+        }
+        ds.setCreateScheduler(createScheduler);
+        ds.setMaxCreateTaskCount(n);
+        ds.setAsyncInit(true);
+        String sessionSql = System.getenv("WARMUP_SESSION_SQL");
+        if (sessionSql != null && !sessionSql.trim().isEmpty()) {
+            List<String> sqls = new ArrayList<String>();
+            for (String sql : sessionSql.split(";")) {
+                if (!sql.trim().isEmpty()) sqls.add(sql.trim());
+            }
+            ds.setConnectionInitSqls(sqls);
+        }
+    }
+
+    /**
+     * init后调用：等待初始连接创建完成，并在每个连接上执行预热查询
+     */
+    static void warm(final DruidDataSource ds) throws InterruptedException {
+        final int n = Math.max(1, ds.getInitialSize());
+        final String sql = System.getenv("WARMUP_SQL") != null
+            ? System.getenv("WARMUP_SQL")
+            : "SELECT * FROM big_table WHERE 1 = 0";
+        final long timeoutNanos = TimeUnit.SECONDS.toNanos(DruidLongQueryExample.envLong("WARMUP_TIMEOUT_SEC", 60));
+        long startNanos = System.nanoTime();
+
+        // asyncInit下init()立即返回，连接由createScheduler并行创建
+        while (ds.getPoolingCount() + ds.getActiveCount() < n && System.nanoTime() - startNanos < timeoutNanos) {
+            Thread.sleep(5);
+        }
+        long createdNanos = System.nanoTime();
+
+        final CountDownLatch borrowed = new CountDownLatch(n);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicLong maxPrimeNanos = new AtomicLong();
+        final AtomicLong failures = new AtomicLong();
+        ExecutorService workers = Executors.newFixedThreadPool(n, LoadEngine.namedThreads("pool-warmup"));
+        for (int i = 0; i < n; i++) {
+            workers.execute(new Runnable() {
+                @Override
+                public void run() {
+                    DruidPooledConnection conn = null;
+                    try {
+                        long t0 = System.nanoTime();
+                        conn = ds.getConnection();
+                        Connection raw = conn.getConnection();
+                        if (raw instanceof ConnectionProxy) {
+                            raw = ((ConnectionProxy) raw).getRawObject();
+                        }
+                        Statement stmt = raw.createStatement();
+                        try {
+                            ResultSet rs = stmt.executeQuery(sql);
+                            rs.getMetaData().getColumnCount();
+                            while (rs.next()) {
+                                rs.getObject(1);
+                            }
+                            rs.close();
+                        } finally {
+                            stmt.close();
+                        }
+                        long took = System.nanoTime() - t0;
+                        long prev = maxPrimeNanos.get();
+                        while (took > prev && !maxPrimeNanos.compareAndSet(prev, took)) {
+                            prev = maxPrimeNanos.get();
+                        }
+                    } catch (SQLException e) {
+                        failures.incrementAndGet();
+                        DruidLongQueryExample.log("Warm-up query failed: " + e.getMessage());
+                    } finally {
+                        borrowed.countDown();
+                        // 所有连接都借出后才归还，避免同一个物理连接被重复预热
+                        try {
+                            release.await(timeoutNanos, TimeUnit.NANOSECONDS);
+                        } catch (InterruptedException ignored) {
+                            Thread.currentThread().interrupt();
+                        }
+                        if (conn != null) {
+                            try {
+                                conn.close();
+                            } catch (SQLException ignored) {
+                            }
+                        }
+                    }
+                }
+            });
+        }
+        borrowed.await(timeoutNanos, TimeUnit.NANOSECONDS);
+        release.countDown();
+        workers.shutdown();
+        workers.awaitTermination(timeoutNanos, TimeUnit.NANOSECONDS);
+
+        long endNanos = System.nanoTime();
+        DruidLongQueryExample.log(String.format("[WARMUP] %s: %d connections created in %d ms (parallel), primed in %d ms "
+                        + "(slowest %d ms, %d failed), pooling %d", ds.getName(), n, (createdNanos - startNanos) / 1000000,
+                (endNanos - createdNanos) / 1000000, maxPrimeNanos.get() / 1000000, failures.get(), ds.getPoolingCount()));
+    }
+
+    /**
+     * 连接池关闭后调用：停止prepare创建的建连线程池（Druid不会关闭外部传入的createScheduler）
+     */
+    static void shutdown() {
+        synchronized (createSchedulers) {
+            for (ScheduledExecutorService scheduler : createSchedulers) {
+                scheduler.shutdownNow();
+            }
+            createSchedulers.clear();
+        }
+    }
+
+    /**
+     * 第一个成功查询结束时调用一次，输出冷启动/预热后的首查询延迟
+     */
+    static void firstQuery(long acquireNanos, long firstRowNanos) {
+        if (!firstQueryReported.compareAndSet(false, true)) {
+            return;
+        }
+        DruidLongQueryExample.log(String.format("[STARTUP] first query (%s pool): acquire %.1f ms, first row %.1f ms, "
+                        + "%d ms after JVM start", isEnabled() ? "warm" : "cold", acquireNanos / 1e6, firstRowNanos / 1e6,
+                ManagementFactory.getRuntimeMXBean().getUptime()));
+    }
+}
@@ -0,0 +1,298 @@
+import com.alibaba.druid.pool.DruidDataSource;
+import com.alibaba.druid.pool.DruidPooledConnection;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 多Reader实例路由
+ * 每个Reader实例端点一个Druid连接池，按策略把每个查询路由到负载最低的Reader；
+ * 连续失败的Reader在冷却时间内不再接收查询（drain），冷却结束后再失败一次即重新摘除
+ *
+ * 路由策略：
+ *   least-active  活跃连接数 + 等待线程数最少
+ *   latency       最近首行延迟（EWMA）× (1 + 活跃连接数) 最小
+ *   lag           从 information_schema.replica_host_status 定期读取复制延迟，
+ *                 在延迟不超过上限的Reader中选活跃连接最少的；都超过时选延迟最小的
+ */
+public class ReaderRouter {
+
+    enum Policy {
+        LEAST_ACTIVE, LATENCY, LAG;
+
+        static Policy parse(String name) {
+            return valueOf(name.trim().toUpperCase().replace('-', '_'));
+        }
+    }
+
+    /**
+     * 一个Reader实例端点
+     */
+    static class Endpoint {
+        final int index;
+        final String url;
+        final String instanceId;
+        final DruidDataSource dataSource;
+        final AtomicLong queries = new AtomicLong();
+        final AtomicLong failures = new AtomicLong();
+        final AtomicLong drains = new AtomicLong();
+        final AtomicInteger consecutiveFailures = new AtomicInteger();
+        volatile long drainedUntilNanos;
+        volatile double latencyEwmaMillis;
+        volatile long lagMillis = -1;
+
+        Endpoint(int index, String url, DruidDataSource dataSource) {
+            this.index = index;
+            this.url = url;
+            this.instanceId = instanceId(url);
+            this.dataSource = dataSource;
+        }
+
+        int load() {
+            return dataSource.getActiveCount() + dataSource.getWaitThreadCount();
+        }
+
+        boolean drained(long now) {
+            return now < drainedUntilNanos;
+        }
+    }
+
+    private static final double EWMA_ALPHA = 0.2;
+
+    private final Policy policy;
+    private final int failureThreshold;
+    private final long drainNanos;
+    private final long maxLagMillis;
+    private final long lagPollMillis;
+    private final List<Endpoint> endpoints = new ArrayList<Endpoint>();
+    private final AtomicInteger rotation = new AtomicInteger();
+    private ScheduledExecutorService lagPoller;
+    private volatile boolean lagAvailable = true;
+
+    /**
+     * @param failureThreshold 连续失败多少次后摘除
+     * @param drainMillis      摘除时长
+     * @param maxLagMillis     lag策略下可接受的最大复制延迟
+     * @param lagPollMillis    lag策略下读取复制延迟的间隔
+     */
+    public ReaderRouter(Policy policy, int failureThreshold, long drainMillis, long maxLagMillis, long lagPollMillis) {
+        this.policy = policy;
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.drainNanos = TimeUnit.MILLISECONDS.toNanos(drainMillis);
+        this.maxLagMillis = maxLagMillis;
+        this.lagPollMillis = lagPollMillis;
+    }
+
+    public void add(String url, DruidDataSource dataSource) {
+        endpoints.add(new Endpoint(endpoints.size() + 1, url, dataSource));
+    }
+
+    public void start() {
+        DruidLongQueryExample.log("Reader router: " + endpoints.size() + " endpoints, policy " + policy
+                + ", drain after " + failureThreshold + " consecutive failures for " + drainNanos / 1000000000 + " s");
+        for (Endpoint e : endpoints) {
+            DruidLongQueryExample.log("  reader-" + e.index + " [" + e.instanceId + "] " + e.url);
+        }
+        if (policy == Policy.LAG) {
+            lagPoller = Executors.newSingleThreadScheduledExecutor(LoadEngine.namedThreads("reader-lag"));
+            lagPoller.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    pollLag();
+                }
+            }, 0, lagPollMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * 选择本次查询使用的Reader
+     */
+    public Endpoint route() {
+        long now = System.nanoTime();
+        int n = endpoints.size();
+        // 从轮转位置开始比较，得分相同时把查询分散到不同Reader
+        int offset = (rotation.getAndIncrement() & Integer.MAX_VALUE) % n;
+        Endpoint best = null;
+        double bestScore = Double.MAX_VALUE;
+        for (int i = 0; i < n; i++) {
+            Endpoint e = endpoints.get((offset + i) % n);
+            if (e.drained(now)) {
+                continue;
+            }
+            double score = score(e);
+            if (score < bestScore) {
+                best = e;
+                bestScore = score;
+            }
+        }
+        if (best == null) {
+            // 全部被摘除：选最早结束摘除的
+            for (Endpoint e : endpoints) {
+                if (best == null || e.drainedUntilNanos < best.drainedUntilNanos) best = e;
+            }
+        }
+        best.queries.incrementAndGet();
+        return best;
+    }
+
+    private double score(Endpoint e) {
+        switch (policy) {
+            case LATENCY:
+                return e.latencyEwmaMillis * (1 + e.dataSource.getActiveCount());
+            case LAG:
+                if (!lagAvailable || e.lagMillis < 0) {
+                    return e.load();
+                }
+                // 超过上限的Reader排在所有未超限的之后，按延迟比较
+                return e.lagMillis > maxLagMillis ? 1e9 + e.lagMillis : e.load();
+            default:
+                return e.load();
+        }
+    }
+
+    /**
+     * 查询结束后回报结果
+     * @param firstResultNanos 从执行到返回结果的耗时，未返回时为0
+     * @param category         失败时的错误类别，成功时为null
+     */
+    public void finished(Endpoint e, boolean ok, long firstResultNanos, ErrorClassifier.Category category) {
+        if (firstResultNanos > 0) {
+            double millis = firstResultNanos / 1e6;
+            e.latencyEwmaMillis = e.latencyEwmaMillis == 0 ? millis : e.latencyEwmaMillis + EWMA_ALPHA * (millis - e.latencyEwmaMillis);
+        }
+        if (ok) {
+            e.consecutiveFailures.set(0);
+            return;
+        }
+        e.failures.incrementAndGet();
+        // 只有与实例本身相关的错误（断连、被kill、取不到连接）计入摘除判断；
+        // DDL元数据锁等待虽可重试，但源于Writer上的DDL，不能据此摘除健康的Reader
+        if (category == null || !(category.connectionLost || category == ErrorClassifier.Category.POOL_EXHAUSTION)) {
+            return;
+        }
+        if (e.consecutiveFailures.incrementAndGet() >= failureThreshold) {
+            long now = System.nanoTime();
+            if (!e.drained(now)) {
+                e.drainedUntilNanos = now + drainNanos;
+                e.drains.incrementAndGet();
+                DruidLongQueryExample.log("[ROUTER] reader-" + e.index + " [" + e.instanceId + "] drained for "
+                        + drainNanos / 1000000000 + " s after " + e.consecutiveFailures.get() + " consecutive failures ("
+                        + category.label + ")");
+            }
+        }
+    }
+
+    /**
+     * 读取Aurora各实例的复制延迟，server_id 与端点主机名的第一段（实例标识）对应
+     */
+    private void pollLag() {
+        long now = System.nanoTime();
+        for (Endpoint source : endpoints) {
+            if (source.drained(now)) {
+                continue;
+            }
+            DruidPooledConnection conn = null;
+            Statement stmt = null;
+            ResultSet rs = null;
+            try {
+                conn = source.dataSource.getConnection();
+                stmt = conn.createStatement();
+                rs = stmt.executeQuery("SELECT server_id, session_id, replica_lag_in_milliseconds"
+                        + " FROM information_schema.replica_host_status");
+                while (rs.next()) {
+                    String serverId = rs.getString(1);
+                    if ("MASTER_SESSION_ID".equals(rs.getString(2))) {
+                        continue;
+                    }
+                    long lag = (long) rs.getDouble(3);
+                    for (Endpoint e : endpoints) {
+                        if (e.instanceId.equalsIgnoreCase(serverId)) e.lagMillis = lag;
+                    }
+                }
+                return;
+            } catch (SQLException ex) {
+                if (ErrorClassifier.classify(ex) == ErrorClassifier.Category.OTHER) {
+                    // 不是Aurora（或没有权限），退回least-active
+                    lagAvailable = false;
+                    DruidLongQueryExample.log("[ROUTER] replica_host_status unavailable (" + ex.getMessage()
+                            + "), lag policy falls back to least-active");
+                    lagPoller.shutdown();
+                    return;
+                }
+            } finally {
+                try {
+                    if (rs != null) rs.close();
+                    if (stmt != null) stmt.close();
+                    if (conn != null) conn.close();
+                } catch (SQLException ignored) {
+                }
+            }
+        }
+    }
+
+    /**
+     * 输出各Reader的查询分布
+     */
+    public void report() {
+        DruidLongQueryExample.log("\n========== Reader Routing Report ==========");
+        DruidLongQueryExample.log("reader    | instance             | queries | failures | drains | ewma ms | lag ms | active");
+        for (Endpoint e : endpoints) {
+            DruidLongQueryExample.log(String.format("reader-%-2d | %-20s | %7d | %8d | %6d | %7.1f | %6s | %6d", e.index,
+                    e.instanceId.length() > 20 ? e.instanceId.substring(0, 20) : e.instanceId,
+                    e.queries.get(), e.failures.get(), e.drains.get(), e.latencyEwmaMillis,
+                    e.lagMillis >= 0 ? String.valueOf(e.lagMillis) : "-", e.dataSource.getActiveCount()));
+        }
+        DruidLongQueryExample.log("===========================================");
+    }
+
+    public List<DruidDataSource> dataSources() {
+        List<DruidDataSource> result = new ArrayList<DruidDataSource>();
+        for (Endpoint e : endpoints) {
+            result.add(e.dataSource);
+        }
+        return result;
+    }
+
+    /**
+     * 关闭所有Reader连接池
+     */
+    public void close() {
+        if (lagPoller != null) {
+            lagPoller.shutdownNow();
+        }
+        for (Endpoint e : endpoints) {
+            e.dataSource.close();
+        }
+    }
+
+    /**
+     * 从JDBC URL中取主机名的第一段，Aurora实例端点即实例标识
+     */
+    static String instanceId(String url) {
+        int start = url.indexOf("//");
+        if (start < 0) {
+            return url;
+        }
+        start += 2;
+        int end = start;
+        while (end < url.length() && ":/.?;".indexOf(url.charAt(end)) < 0) {
+            end++;
+        }
+        String host = url.substring(start, end);
+        // 本地代理都在localhost上，用端口区分
+        if ("localhost".equals(host) && end < url.length() && url.charAt(end) == ':') {
+            int portEnd = end + 1;
+            while (portEnd < url.length() && Character.isDigit(url.charAt(portEnd))) portEnd++;
+            return host + url.substring(end, portEnd);
+        }
+        return host;
+    }
+}
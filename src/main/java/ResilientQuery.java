@@ -0,0 +1,226 @@
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 断连感知的重试执行器
+ * 查询因断连失败时（损坏的连接已由 executeLongQuery 从连接池驱逐），按指数退避 + 随机抖动有限次重试；
+ * SQL中包含 {lastKey} 时用上次处理到的键值替换后重新执行，从断点继续扫描而不是从头开始。
+ * 每次断连记为一个事件，恢复时间 = 失败到重试查询重新返回结果的时间
+ *
+ * 环境变量：
+ *   RETRY_MAX             每个查询最多重试次数（默认0，不启用）
+ *   RETRY_BACKOFF_MS      第一次重试的退避时间（默认500）
+ *   RETRY_BACKOFF_MAX_MS  退避上限（默认30000）
+ *   RETRY_RESUME_KEY      断点续扫使用的键列（默认id，仅SQL包含 {lastKey} 时生效）
+ *   RETRY_RESUME_START    {lastKey} 的初始值（默认0）
+ */
+public class ResilientQuery {
+
+    static final String LAST_KEY = "{lastKey}";
+
+    /**
+     * 一次执行的进度，由 executeLongQuery 填写
+     */
+    static class Progress {
+        final String keyColumn;
+        long lastKey;
+        long rows;
+        long responseNanos;
+        SQLException error;
+        ErrorClassifier.Category category;
+
+        Progress(String keyColumn, long lastKey) {
+            this.keyColumn = keyColumn;
+            this.lastKey = lastKey;
+        }
+
+        void beginAttempt() {
+            responseNanos = 0;
+            error = null;
+            category = null;
+        }
+    }
+
+    /**
+     * 一次断连事件
+     */
+    static class Incident {
+        final long id;
+        final String thread;
+        final long startMillis;
+        final long startNanos;
+        final String cause;
+        int retries;
+        long recoveredNanos;
+        boolean completed;
+
+        Incident(long id, Progress progress) {
+            this.id = id;
+            this.thread = Thread.currentThread().getName();
+            this.startMillis = System.currentTimeMillis();
+            this.startNanos = System.nanoTime();
+            this.cause = progress.error != null
+                    ? progress.category.label + ": " + progress.error.getErrorCode() + "/" + progress.error.getSQLState()
+                      + " " + progress.error.getMessage()
+                    : "unknown";
+        }
+
+        boolean recovered() {
+            return recoveredNanos != 0;
+        }
+
+        long recoveryMillis() {
+            return (recoveredNanos - startNanos) / 1000000;
+        }
+    }
+
+    private final int maxRetries;
+    private final long backoffMillis;
+    private final long maxBackoffMillis;
+    private final String keyColumn;
+    private final long startKey;
+
+    private final List<Incident> incidents = Collections.synchronizedList(new ArrayList<Incident>());
+    private final AtomicLong incidentSeq = new AtomicLong();
+    private final AtomicLong queries = new AtomicLong();
+    private final AtomicLong retried = new AtomicLong();
+
+    public ResilientQuery(int maxRetries, long backoffMillis, long maxBackoffMillis, String keyColumn, long startKey) {
+        this.maxRetries = maxRetries;
+        this.backoffMillis = Math.max(1, backoffMillis);
+        this.maxBackoffMillis = Math.max(this.backoffMillis, maxBackoffMillis);
+        this.keyColumn = keyColumn;
+        this.startKey = startKey;
+    }
+
+    /**
+     * 按环境变量创建，RETRY_MAX未设置或为0时返回null
+     */
+    static ResilientQuery fromEnv() {
+        int maxRetries = DruidLongQueryExample.envInt("RETRY_MAX", 0);
+        if (maxRetries <= 0) {
+            return null;
+        }
+        String keyColumn = System.getenv("RETRY_RESUME_KEY") != null ? System.getenv("RETRY_RESUME_KEY").trim() : "id";
+        ResilientQuery retry = new ResilientQuery(maxRetries,
+                DruidLongQueryExample.envLong("RETRY_BACKOFF_MS", 500),
+                DruidLongQueryExample.envLong("RETRY_BACKOFF_MAX_MS", 30000),
+                keyColumn, DruidLongQueryExample.envLong("RETRY_RESUME_START", 0));
+        DruidLongQueryExample.log("Retry enabled: max " + maxRetries + " retries, backoff " + retry.backoffMillis
+                + "~" + retry.maxBackoffMillis + " ms, resume key: " + keyColumn);
+        return retry;
+    }
+
+    /**
+     * 执行查询，断连或取连接失败时重试
+     * @return 查询最终是否完成
+     */
+    public boolean execute(String sql) {
+        queries.incrementAndGet();
+        boolean resume = sql.contains(LAST_KEY);
+        Progress progress = new Progress(resume ? keyColumn : null, startKey);
+        Incident incident = null;
+        int retries = 0;
+        while (true) {
+            progress.beginAttempt();
+            long fromKey = progress.lastKey;
+            String actual = resume ? sql.replace(LAST_KEY, Long.toString(fromKey)) : sql;
+            boolean ok = DruidLongQueryExample.executeLongQuery(actual, progress);
+
+            if (incident != null && !incident.recovered() && progress.responseNanos != 0) {
+                incident.recoveredNanos = progress.responseNanos;
+                DruidLongQueryExample.log("[RETRY] Incident #" + incident.id + " recovered in " + incident.recoveryMillis()
+                        + " ms after " + incident.retries + " retries"
+                        + (resume ? ", resumed from " + keyColumn + " > " + fromKey : ""));
+            }
+            if (ok) {
+                if (incident != null) incident.completed = true;
+                return true;
+            }
+            if (!retryable(progress)) {
+                return false;
+            }
+            if (incident == null || incident.recovered()) {
+                // 恢复后再次断开算作新事件
+                incident = new Incident(incidentSeq.incrementAndGet(), progress);
+                incidents.add(incident);
+                DruidLongQueryExample.log("[RETRY] Incident #" + incident.id + " opened: " + incident.cause);
+            }
+            if (retries >= maxRetries) {
+                DruidLongQueryExample.log("[RETRY] Incident #" + incident.id + " giving up after " + retries + " retries");
+                return false;
+            }
+            retries++;
+            incident.retries++;
+            retried.incrementAndGet();
+            long sleep = backoff(retries);
+            DruidLongQueryExample.log("[RETRY] Retry " + retries + "/" + maxRetries + " in " + sleep + " ms"
+                    + (resume ? " from " + keyColumn + " > " + progress.lastKey + " (" + progress.rows + " rows done)" : ""));
+            try {
+                Thread.sleep(sleep);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+    }
+
+    /**
+     * 断连、被kill、元数据锁、连接池等待超时（实例重启中）时重试，其余错误（语法、权限、查询超时等）直接失败
+     */
+    private static boolean retryable(Progress progress) {
+        return progress.category != null && progress.category.retryable;
+    }
+
+    /**
+     * 指数退避，在 [上限/2, 上限] 内随机抖动，避免所有worker同时重连
+     */
+    long backoff(int retry) {
+        return backoff(backoffMillis, maxBackoffMillis, retry);
+    }
+
+    static long backoff(long baseMillis, long maxMillis, int retry) {
+        long cap = Math.min(maxMillis, baseMillis << Math.min(retry - 1, 20));
+        return ThreadLocalRandom.current().nextLong(cap / 2, cap + 1);
+    }
+
+    /**
+     * 输出每个断连事件的恢复时间
+     */
+    public void report() {
+        List<Incident> all;
+        synchronized (incidents) {
+            all = new ArrayList<Incident>(incidents);
+        }
+        DruidLongQueryExample.log("\n========== Retry / Recovery Report ==========");
+        DruidLongQueryExample.log("Queries: " + queries.get() + ", incidents: " + all.size() + ", retries: " + retried.get());
+        if (all.isEmpty()) {
+            DruidLongQueryExample.log("=============================================");
+            return;
+        }
+        DruidLongQueryExample.log("incident | start                   | thread          | retries | recovery ms | outcome   | cause");
+        long[] recovery = new long[all.size()];
+        int recovered = 0;
+        for (Incident i : all) {
+            if (i.recovered()) recovery[recovered++] = i.recoveryMillis();
+            DruidLongQueryExample.log(String.format("%8d | %-23s | %-15s | %7d | %11s | %-9s | %s", i.id,
+                    DruidLongQueryExample.formatTime(i.startMillis), i.thread, i.retries,
+                    i.recovered() ? String.valueOf(i.recoveryMillis()) : "-",
+                    i.completed ? "completed" : (i.recovered() ? "recovered" : "gave up"),
+                    i.cause.length() > 80 ? i.cause.substring(0, 80) + "..." : i.cause));
+        }
+        if (recovered > 0) {
+            long[] sorted = Arrays.copyOf(recovery, recovered);
+            Arrays.sort(sorted);
+            DruidLongQueryExample.log(String.format("Time to recovery: p50 %d ms, p99 %d ms, max %d ms (%d/%d recovered)",
+                    LoadEngine.Report.percentile(sorted, 50), LoadEngine.Report.percentile(sorted, 99),
+                    sorted[sorted.length - 1], recovered, all.size()));
+        }
+        DruidLongQueryExample.log("=============================================");
+    }
+}
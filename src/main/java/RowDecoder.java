@@ -0,0 +1,289 @@
+import com.alibaba.druid.pool.DruidPooledConnection;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+
+/**
+ * 按列类型解码结果集行
+ * 每个查询只读取一次 ResultSetMetaData，按列类型选择访问方法：
+ *   整数类型      getLong，写入复用的 long[]
+ *   浮点类型      getDouble，写入复用的 double[]
+ *   字符类型      getBytes（原始字节，不做字符集解码）
+ *   其余类型      getString（DECIMAL、时间等在二进制协议下 getBytes 返回的是二进制编码）
+ * 访问方法只由元数据决定，不靠捕获驱动异常回退（异常会经过Druid Filter计入连接池错误数）。
+ * 只有需要输出的行才把当前行格式化为字符串
+ *
+ * decodebench 模式对比改造前的读取循环与当前 executeLongQuery 的读取循环在整表扫描上的分配量和GC停顿
+ */
+public final class RowDecoder {
+
+    static final int LONG = 0;
+    static final int DOUBLE = 1;
+    static final int BYTES = 2;
+    static final int STRING = 3;
+
+    // 保存扫描结果，防止JIT消除读取
+    private static volatile long blackhole;
+
+    private final String[] names;
+    private final int[] types;
+    private final long[] longs;
+    private final double[] doubles;
+    private final byte[][] bytes;
+    private final String[] strings;
+    private final boolean[] nulls;
+    private final StringBuilder line = new StringBuilder(256);
+
+    public RowDecoder(ResultSetMetaData meta) throws SQLException {
+        int n = meta.getColumnCount();
+        names = new String[n];
+        for (int c = 0; c < n; c++) {
+            names[c] = meta.getColumnName(c + 1);
+        }
+        types = columnTypes(meta);
+        longs = new long[n];
+        doubles = new double[n];
+        bytes = new byte[n][];
+        strings = new String[n];
+        nulls = new boolean[n];
+    }
+
+    /**
+     * 按元数据确定每列的访问方法，RowPipeline 共用同一映射
+     */
+    static int[] columnTypes(ResultSetMetaData meta) throws SQLException {
+        int[] types = new int[meta.getColumnCount()];
+        for (int c = 0; c < types.length; c++) {
+            switch (meta.getColumnType(c + 1)) {
+                case Types.TINYINT:
+                case Types.SMALLINT:
+                case Types.INTEGER:
+                case Types.BIGINT:
+                    types[c] = LONG;
+                    break;
+                case Types.FLOAT:
+                case Types.REAL:
+                case Types.DOUBLE:
+                    types[c] = DOUBLE;
+                    break;
+                case Types.CHAR:
+                case Types.VARCHAR:
+                case Types.LONGVARCHAR:
+                    // 文本协议和二进制协议下都是字符集编码的原始字节，避免创建String
+                    types[c] = BYTES;
+                    break;
+                default:
+                    // DECIMAL/NUMERIC（按double读会丢精度）、DATE/TIME/TIMESTAMP、二进制列等
+                    types[c] = STRING;
+                    break;
+            }
+        }
+        return types;
+    }
+
+    public int columnCount() {
+        return names.length;
+    }
+
+    /**
+     * 列名，用 " | " 分隔
+     */
+    public String header() {
+        line.setLength(0);
+        for (int c = 0; c < names.length; c++) {
+            if (c > 0) line.append(" | ");
+            line.append(names[c]);
+        }
+        return line.toString();
+    }
+
+    /**
+     * 读取当前行
+     */
+    public void read(ResultSet rs) throws SQLException {
+        for (int c = 0; c < types.length; c++) {
+            switch (types[c]) {
+                case LONG:
+                    longs[c] = rs.getLong(c + 1);
+                    break;
+                case DOUBLE:
+                    doubles[c] = rs.getDouble(c + 1);
+                    break;
+                case BYTES:
+                    bytes[c] = rs.getBytes(c + 1);
+                    break;
+                default:
+                    strings[c] = rs.getString(c + 1);
+                    break;
+            }
+            nulls[c] = rs.wasNull();
+        }
+    }
+
+    /**
+     * 当前行第column列（从1开始）的整数值，非整数列时返回0
+     */
+    public long getLong(int column) {
+        return types[column - 1] == LONG ? longs[column - 1] : 0;
+    }
+
+    public boolean isLong(int column) {
+        return types[column - 1] == LONG;
+    }
+
+    /**
+     * 当前行的字节数：数值列按8字节，字节列按原始长度，字符串列按字符数
+     */
+    public long rowBytes() {
+        long total = 0;
+        for (int c = 0; c < types.length; c++) {
+            if (nulls[c]) continue;
+            switch (types[c]) {
+                case BYTES:
+                    total += bytes[c].length;
+                    break;
+                case STRING:
+                    total += strings[c].length();
+                    break;
+                default:
+                    total += 8;
+                    break;
+            }
+        }
+        return total;
+    }
+
+    /**
+     * 把当前行格式化为字符串（仅在需要输出时调用）
+     */
+    public String format() {
+        line.setLength(0);
+        for (int c = 0; c < types.length; c++) {
+            if (c > 0) line.append(" | ");
+            if (nulls[c]) {
+                line.append("null");
+                continue;
+            }
+            switch (types[c]) {
+                case LONG:
+                    line.append(longs[c]);
+                    break;
+                case DOUBLE:
+                    line.append(doubles[c]);
+                    break;
+                case BYTES:
+                    line.append(new String(bytes[c], StandardCharsets.UTF_8));
+                    break;
+                default:
+                    line.append(strings[c]);
+                    break;
+            }
+        }
+        return line.toString();
+    }
+
+    /**
+     * 在同一个查询上依次用改造前的循环和当前循环扫描，对比读取线程的分配量、GC次数和GC停顿时间
+     */
+    static void benchmark(String sql, int rounds) throws SQLException {
+        java.lang.management.ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+        if (!(mx instanceof com.sun.management.ThreadMXBean)) {
+            DruidLongQueryExample.log("Thread allocation counters not available on this JVM");
+            return;
+        }
+        com.sun.management.ThreadMXBean tmx = (com.sun.management.ThreadMXBean) mx;
+        long tid = Thread.currentThread().getId();
+        DruidLongQueryExample.log("========== Row Decode Benchmark ==========");
+        DruidLongQueryExample.log("SQL: " + sql + ", rounds: " + rounds);
+        DruidLongQueryExample.log("path    | rows       | seconds | alloc MB | bytes/row | GCs | GC ms");
+        for (int round = 1; round <= rounds; round++) {
+            for (boolean typed : new boolean[]{false, true}) {
+                long gcCount = gcCount();
+                long gcMillis = gcMillis();
+                long before = tmx.getThreadAllocatedBytes(tid);
+                long t0 = System.nanoTime();
+                long rows = scan(sql, typed);
+                long nanos = System.nanoTime() - t0;
+                long allocated = tmx.getThreadAllocatedBytes(tid) - before;
+                DruidLongQueryExample.log(String.format("%-7s | %10d | %7.2f | %8.1f | %9.0f | %3d | %5d", typed ? "typed" : "legacy",
+                        rows, nanos / 1e9, allocated / 1048576.0, rows > 0 ? allocated / (double) rows : 0,
+                        gcCount() - gcCount, gcMillis() - gcMillis));
+            }
+        }
+        DruidLongQueryExample.log("==========================================");
+    }
+
+    /**
+     * 扫描一次：legacy 为改造前的循环（只有输出的行逐列 getString 拼接），
+     * typed 与当前 executeLongQuery 相同（只有输出的行和需要统计字节数的模式才解码整行）
+     */
+    private static long scan(String sql, boolean typed) throws SQLException {
+        DruidPooledConnection conn = DruidLongQueryExample.readerDataSource().getConnection();
+        Statement stmt = null;
+        ResultSet rs = null;
+        try {
+            stmt = DruidLongQueryExample.createStatement(conn);
+            rs = stmt.executeQuery(sql);
+            long rows = 0;
+            long sink = 0;
+            if (typed) {
+                RowDecoder decoder = new RowDecoder(rs.getMetaData());
+                boolean countBytes = DruidLongQueryExample.countsRowBytes();
+                while (rs.next()) {
+                    rows++;
+                    boolean printed = rows <= 10 || rows % 1000 == 0;
+                    if (countBytes || printed) {
+                        decoder.read(rs);
+                    }
+                    if (countBytes) {
+                        sink += decoder.rowBytes();
+                    }
+                    if (printed) {
+                        sink += decoder.format().length();
+                    }
+                }
+            } else {
+                int columnCount = rs.getMetaData().getColumnCount();
+                while (rs.next()) {
+                    rows++;
+                    if (rows <= 10 || rows % 1000 == 0) {
+                        StringBuilder row = new StringBuilder();
+                        for (int i = 1; i <= columnCount; i++) {
+                            row.append(rs.getString(i));
+                            if (i < columnCount) row.append(" | ");
+                        }
+                        sink += row.toString().length();
+                    }
+                }
+            }
+            blackhole = sink;
+            return rows;
+        } finally {
+            if (rs != null) rs.close();
+            if (stmt != null) stmt.close();
+            conn.close();
+        }
+    }
+
+    private static long gcCount() {
+        long total = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            total += Math.max(0, gc.getCollectionCount());
+        }
+        return total;
+    }
+
+    private static long gcMillis() {
+        long total = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            total += Math.max(0, gc.getCollectionTime());
+        }
+        return total;
+    }
+}
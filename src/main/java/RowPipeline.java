@@ -0,0 +1,398 @@
+import com.alibaba.druid.pool.DruidDataSource;
+import com.alibaba.druid.pool.DruidPooledConnection;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 读取线程与行处理线程分离的流水线（pipeline模式）
+ * 读取线程只负责从ResultSet按列类型（RowDecoder.columnTypes）取值，写入预分配的列式批次（long[] / double[] / String[]），
+ * 批次在有界环形缓冲（free / full 两个队列，容量 PIPELINE_RING）中循环使用；
+ * 多个处理线程并行消费批次，处理完归还（处理出错时也归还，并让读取线程以失败结束）。缓冲满时读取线程阻塞（背压），
+ * 连接占用时间只取决于读取速度。PIPELINE_COMPARE=true（默认）时再以同样的处理逻辑在读取线程上
+ * 逐行执行一次，对比连接占用时间
+ *
+ * 环境变量：
+ *   PIPELINE_SQL        查询语句（默认按SCAN_TABLE/SCAN_KEY/SCAN_COLUMNS整表顺序扫描）
+ *   PIPELINE_CONSUMERS  处理线程数（默认CPU核数）
+ *   PIPELINE_RING       缓冲批次数（默认64）
+ *   PIPELINE_BATCH      每批行数（默认256）
+ *   PIPELINE_CONSUMER   处理逻辑：format（拼接行字符串，默认）/ checksum（按列类型累加校验和）
+ *   PIPELINE_WORK_US    每行额外的模拟处理时间（微秒，默认0）
+ *   PIPELINE_COMPARE    是否执行单线程逐行处理作对比（默认true）
+ */
+public class RowPipeline {
+
+    static final int LONG = RowDecoder.LONG;
+    static final int DOUBLE = RowDecoder.DOUBLE;
+
+    /**
+     * 一批行的列式存储，创建后循环复用
+     */
+    static final class Batch {
+        final int[] types;
+        final long[][] longs;
+        final double[][] doubles;
+        final String[][] strings;
+        final boolean[][] nulls;
+        final int capacity;
+        int size;
+
+        Batch(int[] types, int capacity) {
+            this.types = types;
+            this.capacity = capacity;
+            int n = types.length;
+            longs = new long[n][];
+            doubles = new double[n][];
+            strings = new String[n][];
+            nulls = new boolean[n][capacity];
+            for (int c = 0; c < n; c++) {
+                if (types[c] == LONG) longs[c] = new long[capacity];
+                else if (types[c] == DOUBLE) doubles[c] = new double[capacity];
+                else strings[c] = new String[capacity];
+            }
+        }
+
+        /**
+         * 按列类型读取当前行到第size行
+         */
+        void read(ResultSet rs) throws SQLException {
+            int row = size++;
+            for (int c = 0; c < types.length; c++) {
+                switch (types[c]) {
+                    case LONG:
+                        longs[c][row] = rs.getLong(c + 1);
+                        break;
+                    case DOUBLE:
+                        doubles[c][row] = rs.getDouble(c + 1);
+                        break;
+                    default:
+                        // 字符列和其余类型都按字符串保存，供处理线程直接使用
+                        strings[c][row] = rs.getString(c + 1);
+                        break;
+                }
+                nulls[c][row] = rs.wasNull();
+            }
+        }
+    }
+
+    /**
+     * 行处理逻辑，每个处理线程一个实例
+     */
+    interface Consumer {
+        void consume(Batch batch, int row);
+
+        long result();
+    }
+
+    /**
+     * 与 executeLongQuery 采样输出相同的行字符串拼接
+     */
+    static class FormatConsumer implements Consumer {
+        private final StringBuilder sb = new StringBuilder(256);
+        private long chars;
+
+        @Override
+        public void consume(Batch b, int row) {
+            sb.setLength(0);
+            for (int c = 0; c < b.types.length; c++) {
+                if (c > 0) sb.append(" | ");
+                if (b.nulls[c][row]) sb.append("null");
+                else if (b.types[c] == LONG) sb.append(b.longs[c][row]);
+                else if (b.types[c] == DOUBLE) sb.append(b.doubles[c][row]);
+                else sb.append(b.strings[c][row]);
+            }
+            chars += sb.length();
+        }
+
+        @Override
+        public long result() {
+            return chars;
+        }
+    }
+
+    /**
+     * 按列类型累加校验和，不做字符串转换
+     */
+    static class ChecksumConsumer implements Consumer {
+        private long sum;
+
+        @Override
+        public void consume(Batch b, int row) {
+            for (int c = 0; c < b.types.length; c++) {
+                if (b.nulls[c][row]) continue;
+                if (b.types[c] == LONG) sum = sum * 31 + b.longs[c][row];
+                else if (b.types[c] == DOUBLE) sum = sum * 31 + Double.doubleToLongBits(b.doubles[c][row]);
+                else sum = sum * 31 + b.strings[c][row].hashCode();
+            }
+        }
+
+        @Override
+        public long result() {
+            return sum;
+        }
+    }
+
+    private final String sql;
+    private final int consumers;
+    private final int ringSize;
+    private final int batchRows;
+    private final String consumerType;
+    private final long workNanos;
+
+    public RowPipeline(String sql, int consumers, int ringSize, int batchRows, String consumerType, long workMicros) {
+        this.sql = sql;
+        this.consumers = Math.max(1, consumers);
+        this.ringSize = Math.max(2, ringSize);
+        this.batchRows = Math.max(1, batchRows);
+        this.consumerType = consumerType;
+        this.workNanos = TimeUnit.MICROSECONDS.toNanos(workMicros);
+    }
+
+    static RowPipeline fromEnv() {
+        String sql = System.getenv("PIPELINE_SQL");
+        if (sql == null || sql.trim().isEmpty()) {
+            sql = "SELECT " + DruidLongQueryExample.envString("SCAN_COLUMNS", "*")
+                    + " FROM " + DruidLongQueryExample.envString("SCAN_TABLE", "big_table")
+                    + " ORDER BY " + DruidLongQueryExample.envString("SCAN_KEY", "id");
+        }
+        return new RowPipeline(sql,
+                DruidLongQueryExample.envInt("PIPELINE_CONSUMERS", Runtime.getRuntime().availableProcessors()),
+                DruidLongQueryExample.envInt("PIPELINE_RING", 64),
+                DruidLongQueryExample.envInt("PIPELINE_BATCH", 256),
+                DruidLongQueryExample.envString("PIPELINE_CONSUMER", "format").toLowerCase(),
+                DruidLongQueryExample.envLong("PIPELINE_WORK_US", 0));
+    }
+
+    private Consumer newConsumer() {
+        return "checksum".equals(consumerType) ? new ChecksumConsumer() : new FormatConsumer();
+    }
+
+    private void process(Consumer consumer, Batch batch) {
+        for (int row = 0; row < batch.size; row++) {
+            consumer.consume(batch, row);
+            if (workNanos > 0) {
+                long until = System.nanoTime() + workNanos;
+                while (System.nanoTime() < until) {
+                    // 模拟耗CPU的行处理
+                }
+            }
+        }
+    }
+
+    public void run() throws InterruptedException {
+        DruidLongQueryExample.log("[PIPELINE] " + sql);
+        DruidLongQueryExample.log("[PIPELINE] " + consumers + " consumers (" + consumerType + ", +" + workNanos / 1000
+                + " us/row), ring " + ringSize + " x " + batchRows + " rows");
+        runPipeline();
+        if (!"false".equalsIgnoreCase(System.getenv("PIPELINE_COMPARE"))) {
+            runInline();
+        }
+        DruidLongQueryExample.log("=========================================");
+    }
+
+    /**
+     * 读取线程 + 处理线程
+     */
+    private void runPipeline() throws InterruptedException {
+        final BlockingQueue<Batch> free = new ArrayBlockingQueue<Batch>(ringSize);
+        final BlockingQueue<Batch> full = new ArrayBlockingQueue<Batch>(ringSize + consumers);
+        final AtomicLong consumerWaitNanos = new AtomicLong();
+        final AtomicLong consumedRows = new AtomicLong();
+        final long[] results = new long[consumers];
+        final AtomicReference<Throwable> consumerFailure = new AtomicReference<Throwable>();
+        final Batch end = new Batch(new int[0], 0);
+
+        long producerStalls = 0;
+        long producerStallNanos = 0;
+        long occupancySum = 0;
+        int occupancyMax = 0;
+        long rows = 0;
+        long batches = 0;
+        String failure = null;
+
+        DruidDataSource pool = DruidLongQueryExample.readerDataSource();
+        DruidPooledConnection conn = null;
+        Statement stmt = null;
+        ResultSet rs = null;
+        ExecutorService workers = null;
+        long startNanos = System.nanoTime();
+        long holdNanos = 0;
+        try {
+            conn = pool.getConnection();
+            long borrowedNanos = System.nanoTime();
+            stmt = DruidLongQueryExample.createStatement(conn);
+            rs = stmt.executeQuery(sql);
+            int[] types = RowDecoder.columnTypes(rs.getMetaData());
+            for (int i = 0; i < ringSize; i++) {
+                free.add(new Batch(types, batchRows));
+            }
+
+            workers = Executors.newFixedThreadPool(consumers, LoadEngine.namedThreads("pipeline-consumer"));
+            for (int i = 0; i < consumers; i++) {
+                final int index = i;
+                workers.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        Consumer consumer = null;
+                        Batch batch = null;
+                        try {
+                            consumer = newConsumer();
+                            while (true) {
+                                long t0 = System.nanoTime();
+                                batch = full.take();
+                                consumerWaitNanos.addAndGet(System.nanoTime() - t0);
+                                if (batch == end) {
+                                    batch = null;
+                                    break;
+                                }
+                                process(consumer, batch);
+                                consumedRows.addAndGet(batch.size);
+                                batch.size = 0;
+                                free.put(batch);
+                                batch = null;
+                            }
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        } catch (Throwable t) {
+                            // 记录失败，读取线程在领取下一个批次时停止
+                            if (consumerFailure.compareAndSet(null, t)) {
+                                DruidLongQueryExample.log("[PIPELINE] consumer failed: " + t, t);
+                            }
+                        } finally {
+                            if (batch != null) {
+                                // 归还手中的批次，避免读取线程在free上永久阻塞
+                                batch.size = 0;
+                                free.offer(batch);
+                            }
+                            if (consumer != null) {
+                                results[index] = consumer.result();
+                            }
+                        }
+                    }
+                });
+            }
+
+            Batch batch = null;
+            while (consumerFailure.get() == null && rs.next()) {
+                if (batch == null) {
+                    batch = free.poll();
+                    if (batch == null) {
+                        // 缓冲已满，等待处理线程归还批次；处理线程失败时停止
+                        long t0 = System.nanoTime();
+                        while (batch == null && consumerFailure.get() == null) {
+                            batch = free.poll(100, TimeUnit.MILLISECONDS);
+                        }
+                        producerStalls++;
+                        producerStallNanos += System.nanoTime() - t0;
+                        if (batch == null) {
+                            break;
+                        }
+                    }
+                }
+                batch.read(rs);
+                rows++;
+                if (batch.size == batch.capacity) {
+                    int occupancy = full.size() + 1;
+                    occupancySum += occupancy;
+                    occupancyMax = Math.max(occupancyMax, occupancy);
+                    full.put(batch);
+                    batches++;
+                    batch = null;
+                }
+            }
+            if (batch != null && batch.size > 0) {
+                full.put(batch);
+                batches++;
+            }
+        } catch (SQLException e) {
+            ErrorClassifier.Category category = ErrorClassifier.record(e);
+            failure = category.label + ": " + e.getMessage();
+            if (category.connectionLost) {
+                DruidLongQueryExample.discardBrokenConnection(pool, conn);
+            }
+        } finally {
+            try {
+                if (rs != null) rs.close();
+                if (stmt != null) stmt.close();
+                if (conn != null) conn.close();
+            } catch (SQLException ignored) {
+            }
+            holdNanos = System.nanoTime() - startNanos;
+            if (workers != null) {
+                for (int i = 0; i < consumers; i++) {
+                    full.put(end);
+                }
+                workers.shutdown();
+                workers.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            }
+        }
+        long totalNanos = System.nanoTime() - startNanos;
+        if (failure == null && consumerFailure.get() != null) {
+            failure = "consumer: " + consumerFailure.get();
+        }
+
+        long checksum = 0;
+        for (long r : results) checksum += r;
+        DruidLongQueryExample.log("\n========== Row Pipeline Report ==========");
+        DruidLongQueryExample.log(String.format("Pipeline: %d rows in %d batches, connection held %.1f ms, total %.1f ms, %.0f rows/s%s",
+                rows, batches, holdNanos / 1e6, totalNanos / 1e6, totalNanos > 0 ? consumedRows.get() / (totalNanos / 1e9) : 0,
+                failure != null ? " (FAILED: " + failure + ")" : ""));
+        DruidLongQueryExample.log(String.format("Back-pressure: reader stalled %d times, %.1f ms total (%.1f%% of hold time); "
+                        + "ring occupancy avg %.1f / max %d of %d; consumers idle %.1f ms total; result %d",
+                producerStalls, producerStallNanos / 1e6, holdNanos > 0 ? producerStallNanos * 100.0 / holdNanos : 0,
+                batches > 0 ? occupancySum / (double) batches : 0, occupancyMax, ringSize,
+                consumerWaitNanos.get() / 1e6, checksum));
+    }
+
+    /**
+     * 对比：读取线程上逐行处理（与 executeLongQuery 相同的结构）
+     */
+    private void runInline() {
+        DruidDataSource pool = DruidLongQueryExample.readerDataSource();
+        DruidPooledConnection conn = null;
+        Statement stmt = null;
+        ResultSet rs = null;
+        long rows = 0;
+        Consumer consumer = newConsumer();
+        long startNanos = System.nanoTime();
+        String failure = null;
+        try {
+            conn = pool.getConnection();
+            stmt = DruidLongQueryExample.createStatement(conn);
+            rs = stmt.executeQuery(sql);
+            Batch batch = new Batch(RowDecoder.columnTypes(rs.getMetaData()), 1);
+            while (rs.next()) {
+                batch.size = 0;
+                batch.read(rs);
+                process(consumer, batch);
+                rows++;
+            }
+        } catch (SQLException e) {
+            ErrorClassifier.Category category = ErrorClassifier.record(e);
+            failure = category.label + ": " + e.getMessage();
+            if (category.connectionLost) {
+                DruidLongQueryExample.discardBrokenConnection(pool, conn);
+            }
+        } finally {
+            try {
+                if (rs != null) rs.close();
+                if (stmt != null) stmt.close();
+                if (conn != null) conn.close();
+            } catch (SQLException ignored) {
+            }
+        }
+        long nanos = System.nanoTime() - startNanos;
+        DruidLongQueryExample.log(String.format("Inline:   %d rows, connection held %.1f ms, %.0f rows/s, result %d%s", rows,
+                nanos / 1e6, nanos > 0 ? rows / (nanos / 1e9) : 0, consumer.result(),
+                failure != null ? " (FAILED: " + failure + ")" : ""));
+    }
+}
@@ -0,0 +1,276 @@
+import com.alibaba.druid.pool.DruidDataSource;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.TreeSet;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 声明式测试场景（properties文件），修改负载无需重新编译
+ *
+ * 文件格式：
+ *   pool.maxActive=40                       连接池参数，键名与DruidDataSource的setter一致
+ *   druid.xxx=...                           其余参数交给 DruidDataSource.configFromPropeties
+ *   query.<名称>.sql=SELECT ...             查询类型
+ *   query.<名称>.weight=3                   按权重随机选择（默认1）
+ *   phase.<序号>.name=burst                 按序号依次执行的阶段
+ *   phase.<序号>.concurrency=20             并发数
+ *   phase.<序号>.rampUpSec=30               爬升时间
+ *   phase.<序号>.durationSec=600            时长（与iterations至少设置一个）
+ *   phase.<序号>.iterations=0               迭代次数预算
+ *   phase.<序号>.thinkMs=1000               每次查询后的等待
+ *   phase.<序号>.idleAfterSec=300           阶段结束后的空闲时间（连接保持在池中）
+ *   phase.<序号>.queries=sleep,scan         本阶段使用的查询类型（默认全部）
+ */
+public class Scenario {
+
+    /**
+     * 一种查询及其权重
+     */
+    static class QueryType {
+        final String name;
+        final String sql;
+        final int weight;
+        final AtomicLong executed = new AtomicLong();
+        final AtomicLong failed = new AtomicLong();
+        final AtomicLong totalNanos = new AtomicLong();
+
+        QueryType(String name, String sql, int weight) {
+            this.name = name;
+            this.sql = sql;
+            this.weight = weight;
+        }
+    }
+
+    /**
+     * 一个负载阶段
+     */
+    static class Phase {
+        String name;
+        int concurrency = 1;
+        long rampUpSec;
+        long durationSec;
+        long iterations;
+        long thinkMs = 1000;
+        long idleAfterSec;
+        List<QueryType> queries;
+        int totalWeight;
+    }
+
+    private final String source;
+    private final Properties pool = new Properties();
+    private final List<QueryType> queries = new ArrayList<QueryType>();
+    private final List<Phase> phases = new ArrayList<Phase>();
+
+    private Scenario(String source) {
+        this.source = source;
+    }
+
+    /**
+     * 读取场景文件，格式错误时抛出IllegalArgumentException
+     */
+    public static Scenario load(String path) throws IOException {
+        Properties props = new Properties();
+        Reader reader = new InputStreamReader(new FileInputStream(path), StandardCharsets.UTF_8);
+        try {
+            props.load(reader);
+        } finally {
+            reader.close();
+        }
+        return parse(path, props);
+    }
+
+    static Scenario parse(String source, Properties props) {
+        Scenario scenario = new Scenario(source);
+
+        TreeSet<String> queryNames = new TreeSet<String>();
+        TreeSet<Integer> phaseIds = new TreeSet<Integer>();
+        for (String key : props.stringPropertyNames()) {
+            String value = props.getProperty(key).trim();
+            if (key.startsWith("pool.") || key.startsWith("druid.")) {
+                scenario.pool.setProperty(key, value);
+            } else if (key.startsWith("query.")) {
+                queryNames.add(segment(key, 1));
+            } else if (key.startsWith("phase.")) {
+                phaseIds.add(Integer.parseInt(segment(key, 1)));
+            }
+        }
+
+        for (String name : queryNames) {
+            String sql = props.getProperty("query." + name + ".sql");
+            if (sql == null || sql.trim().isEmpty()) {
+                throw new IllegalArgumentException("query." + name + ".sql is required");
+            }
+            int weight = Integer.parseInt(props.getProperty("query." + name + ".weight", "1").trim());
+            if (weight > 0) {
+                scenario.queries.add(new QueryType(name, sql.trim(), weight));
+            }
+        }
+        if (scenario.queries.isEmpty()) {
+            throw new IllegalArgumentException("scenario " + source + " defines no query.<name>.sql");
+        }
+
+        for (Integer id : phaseIds) {
+            String prefix = "phase." + id + ".";
+            Phase phase = new Phase();
+            phase.name = props.getProperty(prefix + "name", "phase-" + id).trim();
+            phase.concurrency = intProp(props, prefix + "concurrency", 1);
+            phase.rampUpSec = longProp(props, prefix + "rampUpSec", 0);
+            phase.durationSec = longProp(props, prefix + "durationSec", 0);
+            phase.iterations = longProp(props, prefix + "iterations", 0);
+            phase.thinkMs = longProp(props, prefix + "thinkMs", 1000);
+            phase.idleAfterSec = longProp(props, prefix + "idleAfterSec", 0);
+            if (phase.durationSec <= 0 && phase.iterations <= 0) {
+                throw new IllegalArgumentException(prefix + "durationSec or " + prefix + "iterations is required");
+            }
+            phase.queries = selectQueries(scenario.queries, props.getProperty(prefix + "queries"));
+            for (QueryType q : phase.queries) phase.totalWeight += q.weight;
+            scenario.phases.add(phase);
+        }
+        if (scenario.phases.isEmpty()) {
+            throw new IllegalArgumentException("scenario " + source + " defines no phase.<n>.*");
+        }
+        return scenario;
+    }
+
+    /**
+     * 把场景中的连接池参数应用到尚未init的连接池
+     */
+    public void applyPoolSettings(DruidDataSource ds) {
+        Properties druidProps = new Properties();
+        for (String key : pool.stringPropertyNames()) {
+            String value = pool.getProperty(key);
+            if (key.startsWith("druid.")) {
+                druidProps.setProperty(key, value);
+                continue;
+            }
+            String name = key.substring("pool.".length());
+            if ("initialSize".equals(name)) ds.setInitialSize(Integer.parseInt(value));
+            else if ("minIdle".equals(name)) ds.setMinIdle(Integer.parseInt(value));
+            else if ("maxActive".equals(name)) ds.setMaxActive(Integer.parseInt(value));
+            else if ("maxWait".equals(name)) ds.setMaxWait(Long.parseLong(value));
+            else if ("keepAlive".equals(name)) ds.setKeepAlive(Boolean.parseBoolean(value));
+            else if ("keepAliveBetweenTimeMillis".equals(name)) ds.setKeepAliveBetweenTimeMillis(Long.parseLong(value));
+            else if ("testWhileIdle".equals(name)) ds.setTestWhileIdle(Boolean.parseBoolean(value));
+            else if ("testOnBorrow".equals(name)) ds.setTestOnBorrow(Boolean.parseBoolean(value));
+            else if ("testOnReturn".equals(name)) ds.setTestOnReturn(Boolean.parseBoolean(value));
+            else if ("validationQuery".equals(name)) ds.setValidationQuery(value);
+            else if ("validationQueryTimeout".equals(name)) ds.setValidationQueryTimeout(Integer.parseInt(value));
+            else if ("timeBetweenEvictionRunsMillis".equals(name)) ds.setTimeBetweenEvictionRunsMillis(Long.parseLong(value));
+            else if ("minEvictableIdleTimeMillis".equals(name)) ds.setMinEvictableIdleTimeMillis(Long.parseLong(value));
+            else if ("maxEvictableIdleTimeMillis".equals(name)) ds.setMaxEvictableIdleTimeMillis(Long.parseLong(value));
+            else if ("removeAbandoned".equals(name)) ds.setRemoveAbandoned(Boolean.parseBoolean(value));
+            else if ("removeAbandonedTimeout".equals(name)) ds.setRemoveAbandonedTimeout(Integer.parseInt(value));
+            else throw new IllegalArgumentException("Unsupported pool setting: " + key);
+            DruidLongQueryExample.log("Scenario pool setting " + name + "=" + value);
+        }
+        if (!druidProps.isEmpty()) {
+            ds.configFromPropeties(druidProps);
+        }
+    }
+
+    /**
+     * 依次执行所有阶段，最后输出每种查询的统计
+     */
+    public void run() throws InterruptedException {
+        DruidLongQueryExample.log("========== Scenario: " + source + " ==========");
+        for (QueryType q : queries) {
+            DruidLongQueryExample.log("Query [" + q.name + "] weight " + q.weight + ": " + q.sql);
+        }
+
+        for (int i = 0; i < phases.size(); i++) {
+            final Phase phase = phases.get(i);
+            DruidLongQueryExample.log("\n########## Phase " + (i + 1) + "/" + phases.size() + ": " + phase.name
+                    + " (concurrency " + phase.concurrency
+                    + ", duration " + (phase.durationSec > 0 ? phase.durationSec + "s" : "-")
+                    + ", iterations " + (phase.iterations > 0 ? String.valueOf(phase.iterations) : "-") + ") ##########");
+
+            LoadEngine engine = new LoadEngine(phase.concurrency, phase.concurrency, phase.rampUpSec * 1000,
+                    phase.durationSec * 1000, phase.iterations, phase.thinkMs);
+            engine.run(new LoadEngine.Task() {
+                @Override
+                public boolean run(int workerId, long iteration) {
+                    QueryType q = pick(phase);
+                    long t0 = System.nanoTime();
+                    boolean ok = DruidLongQueryExample.runQuery(q.sql);
+                    q.totalNanos.addAndGet(System.nanoTime() - t0);
+                    q.executed.incrementAndGet();
+                    if (!ok) q.failed.incrementAndGet();
+                    return ok;
+                }
+            });
+
+            if (phase.idleAfterSec > 0) {
+                DruidLongQueryExample.log("--- Phase " + phase.name + " done, idle for " + phase.idleAfterSec + " seconds ---");
+                Thread.sleep(phase.idleAfterSec * 1000);
+            }
+        }
+
+        DruidLongQueryExample.log("\n========== Scenario Query Summary ==========");
+        DruidLongQueryExample.log("query | executed | failed | avg ms");
+        for (QueryType q : queries) {
+            long n = q.executed.get();
+            DruidLongQueryExample.log(String.format("%s | %d | %d | %.1f", q.name, n, q.failed.get(),
+                    n > 0 ? q.totalNanos.get() / (double) n / 1e6 : 0));
+        }
+        DruidLongQueryExample.log("============================================");
+    }
+
+    private static QueryType pick(Phase phase) {
+        if (phase.queries.size() == 1) {
+            return phase.queries.get(0);
+        }
+        int r = ThreadLocalRandom.current().nextInt(phase.totalWeight);
+        for (QueryType q : phase.queries) {
+            r -= q.weight;
+            if (r < 0) {
+                return q;
+            }
+        }
+        return phase.queries.get(phase.queries.size() - 1);
+    }
+
+    private static List<QueryType> selectQueries(List<QueryType> all, String names) {
+        if (names == null || names.trim().isEmpty()) {
+            return all;
+        }
+        List<QueryType> selected = new ArrayList<QueryType>();
+        for (String name : names.split(",")) {
+            QueryType found = null;
+            for (QueryType q : all) {
+                if (q.name.equals(name.trim())) found = q;
+            }
+            if (found == null) {
+                throw new IllegalArgumentException("Unknown query type in phase: " + name.trim());
+            }
+            selected.add(found);
+        }
+        return Collections.unmodifiableList(selected);
+    }
+
+    private static String segment(String key, int index) {
+        String[] parts = key.split("\\.");
+        if (parts.length <= index + 1) {
+            throw new IllegalArgumentException("Malformed scenario key: " + key);
+        }
+        return parts[index];
+    }
+
+    private static int intProp(Properties props, String key, int defaultValue) {
+        String v = props.getProperty(key);
+        return v != null ? Integer.parseInt(v.trim()) : defaultValue;
+    }
+
+    private static long longProp(Properties props, String key, long defaultValue) {
+        String v = props.getProperty(key);
+        return v != null ? Long.parseLong(v.trim()) : defaultValue;
+    }
+}
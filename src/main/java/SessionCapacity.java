@@ -0,0 +1,185 @@
+import com.alibaba.druid.pool.DruidDataSource;
+import com.alibaba.druid.pool.DruidPooledConnection;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 并发会话容量测试（sessions模式）
+ * 按 SESSIONS_STEPS 逐级同时打开N个会话，每个会话在独立的worker线程上执行一条长时间阻塞的查询，
+ * 全部进入执行状态后采样堆内存、进程RSS（/proc/self/status）和线程数，计算每个在途查询的内存开销；
+ * 某一级未能在 SESSIONS_RAMP_TIMEOUT_SEC 内全部进入执行或出现失败时停止，
+ * 之前最后一个成功的级别即可持续的最大并发会话数。
+ * worker线程由 LOAD_THREADS 决定（platform / virtual），分别运行两次即可对比两种线程模型
+ *
+ * 环境变量：
+ *   SESSIONS_STEPS             逗号分隔的并发会话数（默认 50,100,200,500,1000）
+ *   SESSIONS_SQL               每个会话执行的查询（默认 SELECT SLEEP(60)）
+ *   SESSIONS_RAMP_TIMEOUT_SEC  每一级等待全部会话进入执行的时间（默认60）
+ */
+public class SessionCapacity {
+
+    private final String sql;
+    private final List<Integer> steps;
+    private final long rampTimeoutNanos;
+
+    public SessionCapacity(String sql, List<Integer> steps, long rampTimeoutSeconds) {
+        this.sql = sql;
+        this.steps = steps;
+        this.rampTimeoutNanos = TimeUnit.SECONDS.toNanos(rampTimeoutSeconds);
+    }
+
+    static SessionCapacity fromEnv() {
+        List<Integer> steps = new ArrayList<Integer>();
+        for (String s : DruidLongQueryExample.envString("SESSIONS_STEPS", "50,100,200,500,1000").split(",")) {
+            if (!s.trim().isEmpty()) steps.add(Math.max(1, Integer.parseInt(s.trim())));
+        }
+        return new SessionCapacity(DruidLongQueryExample.envString("SESSIONS_SQL", "SELECT SLEEP(60)"), steps,
+                DruidLongQueryExample.envLong("SESSIONS_RAMP_TIMEOUT_SEC", 60));
+    }
+
+    public void run() throws InterruptedException {
+        String engine = LoadEngine.virtualWorkers() ? "virtual" : "platform";
+        DruidDataSource pool = DruidLongQueryExample.readerDataSource();
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        DruidLongQueryExample.log("[SESSIONS] " + engine + " threads, steps " + steps + ", SQL: " + sql);
+
+        List<String> lines = new ArrayList<String>();
+        int sustained = 0;
+        final int maxActive = pool.getMaxActive();
+        for (int n : steps) {
+            if (maxActive < n) {
+                // 本级结束后恢复，不影响之后的模式
+                pool.setMaxActive(n);
+            }
+            System.gc();
+            long heapBefore = memory.getHeapMemoryUsage().getUsed();
+            long rssBefore = rssBytes();
+            int threadsBefore = Thread.activeCount();
+
+            final AtomicInteger inFlight = new AtomicInteger();
+            final AtomicInteger failures = new AtomicInteger();
+            final CountDownLatch done = new CountDownLatch(n);
+            ExecutorService workers = Executors.newCachedThreadPool(LoadEngine.workerThreads("session"));
+            long startNanos = System.nanoTime();
+            for (int i = 0; i < n; i++) {
+                workers.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            session(inFlight, failures);
+                        } finally {
+                            done.countDown();
+                        }
+                    }
+                });
+            }
+
+            // 等待全部会话进入执行
+            long deadline = startNanos + rampTimeoutNanos;
+            while (inFlight.get() < n && failures.get() == 0 && System.nanoTime() < deadline) {
+                Thread.sleep(50);
+            }
+            long rampNanos = System.nanoTime() - startNanos;
+            int reached = inFlight.get();
+            System.gc();
+            long heapDelta = memory.getHeapMemoryUsage().getUsed() - heapBefore;
+            long rssAfter = rssBytes();
+            int threads = Thread.activeCount() - threadsBefore;
+            boolean ok = reached >= n && failures.get() == 0;
+            lines.add(String.format("%8d | %8d | %7.1f | %10.1f | %10s | %7d | %s", n, reached, rampNanos / 1e9,
+                    reached > 0 ? heapDelta / 1024.0 / reached : 0,
+                    rssBefore > 0 && rssAfter > 0 && reached > 0 ? String.format("%.1f", (rssAfter - rssBefore) / 1024.0 / reached) : "-",
+                    threads, ok ? "ok" : failures.get() > 0 ? failures.get() + " failed" : "timeout"));
+            DruidLongQueryExample.log("[SESSIONS] " + n + " sessions: " + reached + " in flight after "
+                    + rampNanos / 1000000 + " ms, " + failures.get() + " failures");
+
+            try {
+                done.await();
+            } finally {
+                workers.shutdown();
+                if (pool.getMaxActive() != maxActive) {
+                    pool.setMaxActive(maxActive);
+                }
+            }
+            if (!ok) {
+                break;
+            }
+            sustained = n;
+        }
+
+        DruidLongQueryExample.log("\n========== Concurrent Session Report (" + engine + " threads) ==========");
+        DruidLongQueryExample.log("sessions | in-flight | ramp s | heap KB/q  | RSS KB/q   | threads | status");
+        for (String line : lines) {
+            DruidLongQueryExample.log(line);
+        }
+        DruidLongQueryExample.log("Max sustained concurrent sessions: " + (sustained > 0 ? sustained : "none"));
+        DruidLongQueryExample.log("=====================================================");
+    }
+
+    /**
+     * 一个会话：借出连接，执行查询直到返回
+     */
+    private void session(AtomicInteger inFlight, AtomicInteger failures) {
+        DruidPooledConnection conn = null;
+        Statement stmt = null;
+        boolean counted = false;
+        try {
+            conn = DruidLongQueryExample.readerDataSource().getConnection();
+            stmt = conn.createStatement();
+            inFlight.incrementAndGet();
+            counted = true;
+            stmt.execute(sql);
+        } catch (SQLException e) {
+            failures.incrementAndGet();
+            ErrorClassifier.record(e);
+        } catch (Throwable t) {
+            // 平台线程下可能是 unable to create native thread
+            failures.incrementAndGet();
+            DruidLongQueryExample.log("[SESSIONS] session failed: " + t);
+        } finally {
+            if (counted) inFlight.decrementAndGet();
+            try {
+                if (stmt != null) stmt.close();
+                if (conn != null) conn.close();
+            } catch (SQLException ignored) {
+            }
+        }
+    }
+
+    /**
+     * 进程常驻内存（包括线程栈等堆外内存），非Linux返回-1
+     */
+    private static long rssBytes() {
+        try {
+            BufferedReader reader = new BufferedReader(new FileReader("/proc/self/status"));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.startsWith("VmRSS:")) {
+                        return Long.parseLong(line.substring(6).trim().split("\\s+")[0]) * 1024;
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (IOException e) {
+            // 非Linux
+        } catch (NumberFormatException e) {
+            // 格式不符
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,331 @@
+import com.alibaba.druid.pool.DruidDataSource;
+import com.alibaba.druid.stat.JdbcSqlStat;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 慢SQL / 合并SQL报告
+ * 读取各Reader连接池StatFilter（druid.stat.mergeSql=true）按归一化SQL汇总的 JdbcSqlStat，
+ * 每 SQL_REPORT_INTERVAL_SEC 秒和运行结束时各追加一次快照到 SQL_REPORT_PATH，
+ * 结束时再按总执行时间输出前 SQL_REPORT_TOP 条，最大耗时超过 druid.stat.slowSqlMillis 的标记为慢SQL。
+ * 快照为累计值，不同运行的报告可直接按 sql 列对比
+ *
+ * 环境变量：
+ *   SQL_REPORT_PATH          报告文件（如 sql-stats.csv；未设置或为空字符串时不写文件，只输出日志）
+ *   SQL_REPORT_FORMAT        csv / json（默认按文件扩展名，json为每个快照一行的JSON Lines）
+ *   SQL_REPORT_INTERVAL_SEC  定期快照间隔（默认0，只在结束时写）
+ *   SQL_REPORT_TOP           结束时日志输出的SQL条数（默认10）
+ */
+public class SqlStatReport {
+
+    // JdbcSqlStat 直方图的区间，单位分别为毫秒和行
+    static final String[] EXECUTE_BUCKETS = {"0-1", "1-10", "10-100", "100-1000", "1000-10000", "10000-100000", "100000-1000000", "1000000+"};
+    static final String[] FETCH_BUCKETS = {"0-1", "1-10", "10-100", "100-1000", "1000-10000", "10000+"};
+
+    /**
+     * 某个连接池上一条归一化SQL的快照
+     */
+    static class Row {
+        final String pool;
+        final String sql;
+        final long executions;
+        final long errors;
+        final long running;
+        final long concurrentMax;
+        final long executeMillisTotal;
+        final long executeMillisMax;
+        final long fetchRows;
+        final long fetchRowsMax;
+        final long resultSetHoldMillis;
+        final long[] executeHistogram;
+        final long[] fetchHistogram;
+        final long[] executeAndHoldHistogram;
+
+        Row(String pool, JdbcSqlStat stat) {
+            this.pool = pool;
+            this.sql = stat.getSql().replaceAll("\\s+", " ").trim();
+            this.executions = stat.getExecuteCount();
+            this.errors = stat.getErrorCount();
+            this.running = stat.getRunningCount();
+            this.concurrentMax = stat.getConcurrentMax();
+            this.executeMillisTotal = stat.getExecuteMillisTotal();
+            this.executeMillisMax = stat.getExecuteMillisMax();
+            this.fetchRows = stat.getFetchRowCount();
+            this.fetchRowsMax = stat.getFetchRowCountMax();
+            this.resultSetHoldMillis = stat.getResultSetHoldTimeMilis();
+            this.executeHistogram = stat.getHistogramValues();
+            this.fetchHistogram = stat.getFetchRowCountHistogramValues();
+            this.executeAndHoldHistogram = stat.getExecuteAndResultHoldTimeHistogramValues();
+        }
+
+        double avgMillis() {
+            return executions > 0 ? executeMillisTotal / (double) executions : 0;
+        }
+    }
+
+    private final String path;
+    private final boolean json;
+    private final long intervalMillis;
+    private final int top;
+    private final long slowMillis;
+    private ScheduledExecutorService scheduler;
+    private int snapshots;
+
+    public SqlStatReport(String path, boolean json, long intervalMillis, int top, long slowMillis) {
+        this.path = path;
+        this.json = json;
+        this.intervalMillis = intervalMillis;
+        this.top = top;
+        this.slowMillis = slowMillis;
+    }
+
+    static SqlStatReport fromEnv() {
+        // 不用envString：显式设置的空字符串同样表示不写文件
+        String path = System.getenv("SQL_REPORT_PATH") != null ? System.getenv("SQL_REPORT_PATH").trim() : "";
+        String format = DruidLongQueryExample.envString("SQL_REPORT_FORMAT", path.endsWith(".json") || path.endsWith(".jsonl") ? "json" : "csv");
+        // 慢SQL阈值沿用StatFilter的配置
+        long slowMillis = 5000;
+        DruidDataSource pool = DruidLongQueryExample.readerDataSource();
+        if (pool != null && pool.getConnectProperties().getProperty("druid.stat.slowSqlMillis") != null) {
+            slowMillis = Long.parseLong(pool.getConnectProperties().getProperty("druid.stat.slowSqlMillis").trim());
+        }
+        return new SqlStatReport(path, "json".equalsIgnoreCase(format.trim()),
+                DruidLongQueryExample.envLong("SQL_REPORT_INTERVAL_SEC", 0) * 1000,
+                DruidLongQueryExample.envInt("SQL_REPORT_TOP", 10), slowMillis);
+    }
+
+    /**
+     * 清空报告文件，按需启动定期快照
+     */
+    public synchronized void start() {
+        if (!path.isEmpty()) {
+            PrintWriter w = open(false);
+            if (w == null) {
+                return;
+            }
+            if (!json) {
+                w.println(csvHeader());
+            }
+            w.close();
+        }
+        if (intervalMillis > 0 && !path.isEmpty()) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(LoadEngine.namedThreads("sql-report"));
+            scheduler.scheduleAtFixedRate(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        write(snapshot());
+                    } catch (Throwable t) {
+                        DruidLongQueryExample.log("SQL stat report error: " + t);
+                    }
+                }
+            }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * 停止定期快照，写入最终快照并输出汇总
+     */
+    public void stop() {
+        ScheduledExecutorService s;
+        synchronized (this) {
+            s = scheduler;
+            scheduler = null;
+        }
+        if (s != null) {
+            s.shutdown();
+            try {
+                s.awaitTermination(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        List<Row> rows = snapshot();
+        if (!path.isEmpty()) {
+            write(rows);
+            DruidLongQueryExample.log("SQL stats written to " + path + " (" + snapshots + " snapshots)");
+        }
+        report(rows);
+    }
+
+    static List<Row> snapshot() {
+        List<Row> rows = new ArrayList<Row>();
+        for (DruidDataSource pool : DruidLongQueryExample.readerDataSources()) {
+            if (pool.getDataSourceStat() == null) {
+                continue;
+            }
+            for (JdbcSqlStat stat : pool.getDataSourceStat().getSqlStatMap().values()) {
+                rows.add(new Row(pool.getName(), stat));
+            }
+        }
+        return rows;
+    }
+
+    private synchronized void write(List<Row> rows) {
+        PrintWriter w = open(true);
+        if (w == null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        String time = DruidLongQueryExample.formatTime(now);
+        try {
+            if (json) {
+                w.println(toJson(time, now, rows));
+            } else {
+                for (Row row : rows) {
+                    w.println(toCsv(time, now, row));
+                }
+            }
+            snapshots++;
+        } finally {
+            w.close();
+        }
+    }
+
+    private PrintWriter open(boolean append) {
+        try {
+            return new PrintWriter(new FileWriter(path, append));
+        } catch (IOException e) {
+            DruidLongQueryExample.log("Failed to write SQL stats: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 按总执行时间输出前N条SQL
+     */
+    void report(List<Row> rows) {
+        if (rows.isEmpty()) {
+            return;
+        }
+        rows = new ArrayList<Row>(rows);
+        Collections.sort(rows, new Comparator<Row>() {
+            @Override
+            public int compare(Row a, Row b) {
+                return Long.compare(b.executeMillisTotal, a.executeMillisTotal);
+            }
+        });
+        int slow = 0;
+        for (Row row : rows) {
+            if (row.executeMillisMax >= slowMillis) slow++;
+        }
+        DruidLongQueryExample.log("\n========== SQL Stats (merged SQL, by total time) ==========");
+        DruidLongQueryExample.log(String.format("%-9s %8s %6s %10s %9s %9s %12s %5s  %s",
+                "pool", "execs", "errors", "total s", "avg ms", "max ms", "fetch rows", "conc", "sql"));
+        for (int i = 0; i < Math.min(top, rows.size()); i++) {
+            Row row = rows.get(i);
+            String sql = row.sql.length() > 80 ? row.sql.substring(0, 80) + "..." : row.sql;
+            DruidLongQueryExample.log(String.format("%-9s %8d %6d %10.1f %9.1f %9d %12d %5d %s %s",
+                    row.pool, row.executions, row.errors, row.executeMillisTotal / 1000.0, row.avgMillis(),
+                    row.executeMillisMax, row.fetchRows, row.concurrentMax,
+                    row.executeMillisMax >= slowMillis ? "*" : " ", sql));
+        }
+        DruidLongQueryExample.log(rows.size() + " merged SQL, " + slow + " slow (* max >= " + slowMillis + " ms)");
+        DruidLongQueryExample.log("===========================================================");
+    }
+
+    static String csvHeader() {
+        StringBuilder sb = new StringBuilder("time,epochMillis,pool,executions,errors,running,concurrentMax,"
+                + "executeMillisTotal,executeMillisAvg,executeMillisMax,fetchRows,fetchRowsMax,resultSetHoldMillis");
+        for (String b : EXECUTE_BUCKETS) sb.append(",exec_ms_").append(b);
+        for (String b : FETCH_BUCKETS) sb.append(",fetch_rows_").append(b);
+        for (String b : EXECUTE_BUCKETS) sb.append(",exec_hold_ms_").append(b);
+        return sb.append(",sql").toString();
+    }
+
+    static String toCsv(String time, long epochMillis, Row row) {
+        StringBuilder sb = new StringBuilder(256);
+        sb.append(time).append(',').append(epochMillis).append(',').append(row.pool)
+                .append(',').append(row.executions).append(',').append(row.errors)
+                .append(',').append(row.running).append(',').append(row.concurrentMax)
+                .append(',').append(row.executeMillisTotal).append(',').append(String.format("%.2f", row.avgMillis()))
+                .append(',').append(row.executeMillisMax).append(',').append(row.fetchRows)
+                .append(',').append(row.fetchRowsMax).append(',').append(row.resultSetHoldMillis);
+        appendCsv(sb, row.executeHistogram, EXECUTE_BUCKETS.length);
+        appendCsv(sb, row.fetchHistogram, FETCH_BUCKETS.length);
+        appendCsv(sb, row.executeAndHoldHistogram, EXECUTE_BUCKETS.length);
+        // SQL放在最后一列并按RFC 4180转义
+        return sb.append(",\"").append(row.sql.replace("\"", "\"\"")).append('"').toString();
+    }
+
+    private static void appendCsv(StringBuilder sb, long[] values, int buckets) {
+        for (int i = 0; i < buckets; i++) {
+            sb.append(',').append(values != null && i < values.length ? values[i] : 0);
+        }
+    }
+
+    static String toJson(String time, long epochMillis, List<Row> rows) {
+        StringBuilder sb = new StringBuilder(1024);
+        sb.append("{\"time\":\"").append(time).append("\",\"epochMillis\":").append(epochMillis).append(",\"sql\":[");
+        for (int i = 0; i < rows.size(); i++) {
+            Row row = rows.get(i);
+            if (i > 0) sb.append(',');
+            sb.append("{\"pool\":").append(jsonString(row.pool))
+                    .append(",\"sql\":").append(jsonString(row.sql))
+                    .append(",\"executions\":").append(row.executions)
+                    .append(",\"errors\":").append(row.errors)
+                    .append(",\"running\":").append(row.running)
+                    .append(",\"concurrentMax\":").append(row.concurrentMax)
+                    .append(",\"executeMillisTotal\":").append(row.executeMillisTotal)
+                    .append(",\"executeMillisMax\":").append(row.executeMillisMax)
+                    .append(",\"fetchRows\":").append(row.fetchRows)
+                    .append(",\"fetchRowsMax\":").append(row.fetchRowsMax)
+                    .append(",\"resultSetHoldMillis\":").append(row.resultSetHoldMillis);
+            appendJson(sb, "executeMillisHistogram", row.executeHistogram, EXECUTE_BUCKETS);
+            appendJson(sb, "fetchRowsHistogram", row.fetchHistogram, FETCH_BUCKETS);
+            appendJson(sb, "executeAndHoldMillisHistogram", row.executeAndHoldHistogram, EXECUTE_BUCKETS);
+            sb.append('}');
+        }
+        return sb.append("]}").toString();
+    }
+
+    private static void appendJson(StringBuilder sb, String name, long[] values, String[] buckets) {
+        sb.append(",\"").append(name).append("\":{");
+        for (int i = 0; i < buckets.length; i++) {
+            if (i > 0) sb.append(',');
+            sb.append('"').append(buckets[i]).append("\":").append(values != null && i < values.length ? values[i] : 0);
+        }
+        sb.append('}');
+    }
+
+    private static String jsonString(String s) {
+        StringBuilder sb = new StringBuilder(s.length() + 2).append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+                    break;
+            }
+        }
+        return sb.append('"').toString();
+    }
+}